@@ -0,0 +1,521 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * AgentDispatcher
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Delivers the callbacks to the agent implementation. In the inline
+ *   mode the agent is called directly by the thread handling the
+ *   server message (the behavior of earlier versions). In the single
+ *   mode all callbacks are called in order by one callback thread and
+ *   in the auction mode the callbacks are spread over several threads
+ *   by auction. Callbacks for the same auction are always called in
+ *   order and callbacks not bound to an auction (game started/stopped,
+ *   quotes for a category, tac errors) are called when all earlier
+ *   callbacks have been handled and before any later callback.
+ *
+ *   If quote callbacks are coalesced, a new quoteUpdated for an
+ *   auction is dropped when the previous one has not yet been called
+ *   (the agent will see the latest quote anyway since the quote object
+ *   is updated in place).
+ *
+ *   In the ring mode the callbacks are published as events in a ring
+ *   of pre-allocated events and the agent is called by its own event
+ *   thread. Additional event handlers, such as loggers or metrics, can
+ *   be added and will see the same events in their own threads. Quote
+ *   callbacks are never coalesced in this mode.
+ *
+ *   Quotes, bids and transactions are also published in streams that
+ *   other components can subscribe to independently of the agent.
+ */
+
+package se.sics.tac.aw;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+class AgentDispatcher {
+
+  private static final Logger log =
+    Logger.getLogger(AgentDispatcher.class.getName());
+
+  /** Dispatch modes */
+  public final static int INLINE = 0;
+  public final static int SINGLE = 1;
+  public final static int AUCTION = 2;
+  public final static int RING = 3;
+
+  private final static String[] modeNames = {
+    "inline", "single", "auction", "ring"
+  };
+
+  // Callback types
+  private final static int QUOTE_UPDATED = MarketEvent.QUOTE_UPDATED;
+  private final static int CATEGORY_UPDATED = MarketEvent.CATEGORY_UPDATED;
+  private final static int BID_UPDATED = MarketEvent.BID_UPDATED;
+  private final static int BID_REJECTED = MarketEvent.BID_REJECTED;
+  private final static int BID_ERROR = MarketEvent.BID_ERROR;
+  private final static int GAME_STARTED = MarketEvent.GAME_STARTED;
+  private final static int GAME_STOPPED = MarketEvent.GAME_STOPPED;
+  private final static int AUCTION_CLOSED = MarketEvent.AUCTION_CLOSED;
+  private final static int TRANSACTION = MarketEvent.TRANSACTION;
+  private final static int TACERROR = MarketEvent.TACERROR;
+  private final static int QUOTES_CHANGED = MarketEvent.QUOTES_CHANGED;
+
+  private final AgentImpl agent;
+  private final int mode;
+  private final boolean coalesceQuotes;
+  private final Shard[] shards;
+  private final EventRing ring;
+
+  // Maximal number of bids or transactions buffered per subscriber
+  private final static int MAX_STREAM_BUFFER = 4096;
+
+  private final MarketStream quoteStream =
+    new MarketStream("quote", TACAgent.NO_AUCTIONS, 0);
+  private final MarketStream bidStream =
+    new MarketStream("bid", 0, MAX_STREAM_BUFFER);
+  private final MarketStream transactionStream =
+    new MarketStream("transaction", 0, MAX_STREAM_BUFFER);
+
+  public AgentDispatcher(AgentImpl agent) {
+    this(agent, INLINE, 1, 0, false);
+  }
+
+  public AgentDispatcher(AgentImpl agent, int mode, int threads,
+			 int ringSize, boolean coalesceQuotes) {
+    this.agent = agent;
+    this.mode = mode;
+    this.coalesceQuotes = coalesceQuotes;
+    if (mode == INLINE) {
+      shards = null;
+      ring = null;
+    } else if (mode == RING) {
+      shards = null;
+      ring = new EventRing(ringSize);
+      ring.addHandler(new MarketEventHandler() {
+	  public void eventReceived(MarketEvent event) {
+	    invoke(event.type, event.data, event.value);
+	  }
+	}, "agent");
+    } else {
+      ring = null;
+      int n = (mode == AUCTION && threads > 1) ? threads : 1;
+      shards = new Shard[n];
+      for (int i = 0; i < n; i++) {
+	shards[i] = new Shard();
+	Thread thread = new Thread(shards[i], "callback-" + i);
+	thread.setDaemon(true);
+	thread.start();
+      }
+    }
+  }
+
+  /**
+   * Returns the dispatch mode for the specified name or -1 if no such
+   * mode exists.
+   */
+  public static int getMode(String name) {
+    for (int i = 0, n = modeNames.length; i < n; i++) {
+      if (modeNames[i].equals(name)) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  public int getMode() {
+    return mode;
+  }
+
+  public String getModeAsString() {
+    return modeNames[mode];
+  }
+
+  /**
+   * Adds a handler for the agent events. Only supported in the ring
+   * mode.
+   *
+   * @param handler the handler to call with all events
+   * @param name the name of the handler used for its thread and in the
+   *	statistics
+   */
+  public void addEventHandler(MarketEventHandler handler, String name) {
+    if (ring == null) {
+      throw new IllegalStateException("event handlers require the "
+				      + modeNames[RING] + " mode");
+    }
+    ring.addHandler(handler, name);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Streams
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the stream of quote updates. The items are QuoteView
+   * copies and only the latest quote per auction is kept for a
+   * subscriber that has not requested more items.
+   */
+  public MarketFlow.Publisher getQuoteStream() {
+    return quoteStream;
+  }
+
+  /**
+   * Returns the stream of updated, rejected and failed bids.
+   */
+  public MarketFlow.Publisher getBidStream() {
+    return bidStream;
+  }
+
+  public MarketFlow.Publisher getTransactionStream() {
+    return transactionStream;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Callbacks
+  // -------------------------------------------------------------------
+
+  public void quoteUpdated(Quote quote) {
+    int auction = quote.getAuction();
+    if (quoteStream.hasSubscribers()) {
+      quoteStream.publish(auction, quote.read(new QuoteView()));
+    }
+    dispatch(QUOTE_UPDATED, auction, quote, 0);
+  }
+
+  public void quoteUpdated(int auctionCategory) {
+    dispatch(CATEGORY_UPDATED, -1, null, auctionCategory);
+  }
+
+  public void quotesChanged(long auctionMask) {
+    dispatch(QUOTES_CHANGED, -1, null, auctionMask);
+  }
+
+  public void bidUpdated(Bid bid) {
+    bidStream.publish(bid.getAuction(), bid);
+    dispatch(BID_UPDATED, bid.getAuction(), bid, 0);
+  }
+
+  public void bidRejected(Bid bid) {
+    bidStream.publish(bid.getAuction(), bid);
+    dispatch(BID_REJECTED, bid.getAuction(), bid, 0);
+  }
+
+  public void bidError(Bid bid, int error) {
+    bidStream.publish(bid.getAuction(), bid);
+    dispatch(BID_ERROR, bid.getAuction(), bid, error);
+  }
+
+  public void gameStarted() {
+    dispatch(GAME_STARTED, -1, null, 0);
+  }
+
+  public void gameStopped() {
+    dispatch(GAME_STOPPED, -1, null, 0);
+  }
+
+  public void auctionClosed(int auction) {
+    dispatch(AUCTION_CLOSED, auction, null, auction);
+  }
+
+  public void transaction(Transaction transaction) {
+    transactionStream.publish(transaction.getAuction(), transaction);
+    dispatch(TRANSACTION, transaction.getAuction(), transaction, 0);
+  }
+
+  public void tacerrorReceived(TACMessage msg) {
+    dispatch(TACERROR, -1, msg, 0);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the number of callbacks waiting to be called.
+   */
+  public int getQueueDepth() {
+    if (ring != null) {
+      return ring.getQueueDepth();
+    }
+    int depth = 0;
+    if (shards != null) {
+      for (int i = 0, n = shards.length; i < n; i++) {
+	depth += shards[i].getQueueDepth();
+      }
+    }
+    return depth;
+  }
+
+  public String getStatistics() {
+    if (ring != null) {
+      return modeNames[mode] + ": " + ring.getStatistics();
+    }
+    if (shards == null) {
+      return modeNames[mode];
+    }
+    long dispatched = 0L;
+    long coalesced = 0L;
+    int maxDepth = 0;
+    for (int i = 0, n = shards.length; i < n; i++) {
+      Shard shard = shards[i];
+      synchronized (shard) {
+	dispatched += shard.dispatchCount;
+	coalesced += shard.coalesceCount;
+	if (shard.maxDepth > maxDepth) {
+	  maxDepth = shard.maxDepth;
+	}
+      }
+    }
+    return modeNames[mode] + " (" + shards.length + " thread"
+      + (shards.length > 1 ? "s" : "") + "): " + dispatched
+      + " callbacks, " + coalesced + " quotes coalesced, max queue "
+      + maxDepth + ", queue " + getQueueDepth();
+  }
+
+  public void resetStatistics() {
+    if (ring != null) {
+      ring.resetStatistics();
+    }
+    if (shards != null) {
+      for (int i = 0, n = shards.length; i < n; i++) {
+	Shard shard = shards[i];
+	synchronized (shard) {
+	  shard.dispatchCount = 0L;
+	  shard.coalesceCount = 0L;
+	  shard.maxDepth = shard.queue.size();
+	}
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Dispatching
+  // -------------------------------------------------------------------
+
+  private void dispatch(int type, int auction, Object data, long value) {
+    Shard[] shards = this.shards;
+    if (ring != null) {
+      ring.publish(type, auction, data, value);
+
+    } else if (shards == null) {
+      invoke(type, data, value);
+
+    } else if (auction >= 0) {
+      shards[auction % shards.length]
+	.add(new Callback(type, auction, data, value, null));
+
+    } else if (shards.length == 1) {
+      shards[0].add(new Callback(type, auction, data, value, null));
+
+    } else {
+      // Not bound to an auction: all threads must reach the callback
+      // before it is called
+      Barrier barrier = new Barrier(shards.length);
+      Callback callback = new Callback(type, auction, data, value, barrier);
+      for (int i = 0, n = shards.length; i < n; i++) {
+	shards[i].add(callback);
+      }
+    }
+  }
+
+  private void invoke(int type, Object data, long value) {
+    try {
+      switch (type) {
+      case QUOTE_UPDATED:
+	agent.quoteUpdated((Quote) data);
+	break;
+      case CATEGORY_UPDATED:
+	agent.quoteUpdated((int) value);
+	break;
+      case BID_UPDATED:
+	agent.bidUpdated((Bid) data);
+	break;
+      case BID_REJECTED:
+	agent.bidRejected((Bid) data);
+	break;
+      case BID_ERROR:
+	agent.bidError((Bid) data, (int) value);
+	break;
+      case GAME_STARTED:
+	agent.gameStarted();
+	break;
+      case GAME_STOPPED:
+	agent.gameStopped();
+	break;
+      case AUCTION_CLOSED:
+	agent.auctionClosed((int) value);
+	break;
+      case TRANSACTION:
+	agent.transaction((Transaction) data);
+	break;
+      case TACERROR:
+	agent.tacerrorReceived((TACMessage) data);
+	break;
+      case QUOTES_CHANGED:
+	agent.quotesChanged(value);
+	break;
+      }
+    } catch (ThreadDeath e) {
+      throw e;
+    } catch (Throwable e) {
+      log.log(Level.SEVERE, "agent could not handle "
+	      + MarketEvent.getTypeName(type)
+	      + (data != null ? (" for " + data) : ""), e);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Callback
+  // -------------------------------------------------------------------
+
+  private static class Callback {
+
+    public final int type;
+    public final int auction;
+    public final Object data;
+    public final long value;
+    public final Barrier barrier;
+
+    Callback(int type, int auction, Object data, long value,
+	     Barrier barrier) {
+      this.type = type;
+      this.auction = auction;
+      this.data = data;
+      this.value = value;
+      this.barrier = barrier;
+    }
+
+  } // Callback
+
+
+  // -------------------------------------------------------------------
+  // Barrier
+  // -------------------------------------------------------------------
+
+  private class Barrier {
+
+    private int remaining;
+    private boolean isDone = false;
+
+    Barrier(int parties) {
+      this.remaining = parties;
+    }
+
+    // The last thread to arrive calls the agent while the others wait
+    // for it to finish
+    synchronized void arrive(Callback callback) {
+      if (--remaining == 0) {
+	try {
+	  invoke(callback.type, callback.data, callback.value);
+	} finally {
+	  isDone = true;
+	  notifyAll();
+	}
+      } else {
+	while (!isDone) {
+	  try {
+	    wait();
+	  } catch (InterruptedException e) {
+	    log.log(Level.WARNING, "interrupted in callback barrier", e);
+	  }
+	}
+      }
+    }
+
+  } // Barrier
+
+
+  // -------------------------------------------------------------------
+  // Shard - one callback thread
+  // -------------------------------------------------------------------
+
+  private class Shard implements Runnable {
+
+    private final ArrayQueue queue = new ArrayQueue();
+    // Auctions with a quote callback waiting in the queue
+    private final boolean[] pendingQuote =
+      new boolean[TACAgent.NO_AUCTIONS];
+
+    long dispatchCount;
+    long coalesceCount;
+    int maxDepth;
+
+    synchronized void add(Callback callback) {
+      if (callback.type == QUOTE_UPDATED) {
+	int auction = callback.auction;
+	if (pendingQuote[auction] && coalesceQuotes) {
+	  coalesceCount++;
+	  return;
+	}
+	pendingQuote[auction] = true;
+      }
+      queue.add(callback);
+      if (queue.size() > maxDepth) {
+	maxDepth = queue.size();
+      }
+      notify();
+    }
+
+    synchronized int getQueueDepth() {
+      return queue.size();
+    }
+
+    private synchronized Callback take() throws InterruptedException {
+      while (queue.isEmpty()) {
+	wait();
+      }
+      Callback callback = (Callback) queue.remove(0);
+      if (callback.type == QUOTE_UPDATED) {
+	pendingQuote[callback.auction] = false;
+      }
+      if (callback.barrier == null || this == shards[0]) {
+	dispatchCount++;
+      }
+      return callback;
+    }
+
+    public void run() {
+      while (true) {
+	Callback callback;
+	try {
+	  callback = take();
+	} catch (InterruptedException e) {
+	  log.log(Level.WARNING, "callback thread interrupted", e);
+	  continue;
+	}
+	if (callback.barrier != null) {
+	  callback.barrier.arrive(callback);
+	} else {
+	  invoke(callback.type, callback.data, callback.value);
+	}
+      }
+    }
+
+  } // Shard
+
+} // AgentDispatcher
@@ -67,6 +67,15 @@ public abstract class AgentImpl {
   public void quoteUpdated(int auctionCategory) {
   }
 
+  /**
+   * Called after the quotes of an auction category have been updated
+   * if any of the quotes changed.
+   *
+   * @param auctionMask the changed auctions with bit n set for auction n
+   */
+  public void quotesChanged(long auctionMask) {
+  }
+
   public abstract void bidUpdated(Bid bid);
   public abstract void bidRejected(Bid bid);
   public abstract void bidError(Bid bid, int error);
@@ -116,11 +116,22 @@ public class DummyAgent extends AgentImpl {
 
 	private static final int FLIGHT_MAXPRICE = 800;
 
-	private static final int FLIGHT_TIMELIMIT = 600000; // ten minutes
+	private static final int TRIP_UTILITY = 1000; // utility of a feasible
+													// trip on the preferred dates
+
+	// last minute: the flight price predictor is used before this and
+	// flights are then bought at any price (changing date if cheaper)
+	private static final int FLIGHT_TIMELIMIT = 60000;
 
 	private static final int FLIGHT_PUNISHMENT = 1000; // costs of changing date
 														// (100)
 
+	private static final int TRAVEL_PENALTY = 100; // utility lost per day
+													// off the preferred dates
+
+	private static final float FLIGHT_TOLERANCE = 10f; // expected saving
+														// needed to wait
+
 	private static final int HOTEL_INCREMENT = 10;
 
 	private static final float HOTEL_OVERBID_FACTOR = 1.5f;
@@ -133,11 +144,14 @@ public class DummyAgent extends AgentImpl {
 
 	private float[] prices;
 
+	private FlightPricePredictor flightPredictor;
+
 	// stores the utility of tickets for each client
 	// private int[][] enterUtility;
 
 	protected void init(ArgEnumerator args) {
 		prices = new float[agent.getAuctionNo()];
+		flightPredictor = new FlightPricePredictor(agent.getAuctionNo());
 		// enterUtility = new int[8][3];
 	}
 
@@ -245,6 +259,8 @@ public class DummyAgent extends AgentImpl {
 			}
 
 		} else if (auctionCategory == TACAgent.CAT_FLIGHT) { // flight auction
+			flightPredictor.addQuote(auction, agent.getGameTime(),
+					quote.getAskPrice());
 			updateFlights(auction);
 		}
 	}
@@ -276,7 +292,15 @@ public class DummyAgent extends AgentImpl {
 	public void gameStarted() {
 		log.fine("Game " + agent.getGameID() + " started!");
 
-		calculateAllocation();
+		flightPredictor.clear();
+
+		// Publish the market snapshot once for the whole allocation
+		agent.beginAllocation();
+		try {
+			calculateAllocation();
+		} finally {
+			agent.endAllocation();
+		}
 		sendBids();
 	}
 
@@ -292,57 +316,62 @@ public class DummyAgent extends AgentImpl {
 	 * initial bids for what we have been allocated.
 	 */
 	private void sendBids() {
-		for (int i = 0, n = agent.getAuctionNo(); i < n; i++) {
-			int alloc = agent.getAllocation(i) - agent.getOwn(i);
-			float price = -1f;
+		agent.beginBatch();
+		try {
+			for (int i = 0, n = agent.getAuctionNo(); i < n; i++) {
+				int alloc = agent.getAllocation(i) - agent.getOwn(i);
+				float price = -1f;
 
-			switch (agent.getAuctionCategory(i)) {
+				switch (agent.getAuctionCategory(i)) {
 
-			case TACAgent.CAT_FLIGHT: // manage initial bids for flights
+				case TACAgent.CAT_FLIGHT: // manage initial bids for flights
 
-				if (alloc > 0) {
-					price = FLIGHT_THRESHOLD;
-					prices[i] = price;
-				}
-				break;
+					if (alloc > 0) {
+						price = FLIGHT_THRESHOLD;
+						prices[i] = price;
+					}
+					break;
 
-			case TACAgent.CAT_HOTEL: // manage initial bids for hotels
+				case TACAgent.CAT_HOTEL: // manage initial bids for hotels
 
-				if (alloc > 0) {
-					price = 200;
-					prices[i] = 200f;
-				}
-				break;
+					if (alloc > 0) {
+						price = 200;
+						prices[i] = 200f;
+					}
+					break;
 
-			case TACAgent.CAT_ENTERTAINMENT: // manage initial bids for
-				// entertainment
+				case TACAgent.CAT_ENTERTAINMENT: // manage initial bids for
+					// entertainment
 
-				if (alloc < 0) { // Selling tickets
-					price = 200; // start price at max: 200
-					prices[i] = 200f;
+					if (alloc < 0) { // Selling tickets
+						price = 200; // start price at max: 200
+						prices[i] = 200f;
 
-				} else if (alloc > 0) { // buying tickets
-					price = 50;
-					prices[i] = 50f;
-				}
-				break;
+					} else if (alloc > 0) { // buying tickets
+						price = 50;
+						prices[i] = 50f;
+					}
+					break;
 
-			default:
-				break;
-			}
+				default:
+					break;
+				}
 
-			if (price > 0) { // bidding the prices initiallly
-				Bid bid = new Bid(i);
-				bid.addBidPoint(alloc, price);
-				if (DEBUG) {
-					log.finest("Type of auction: "
-							+ agent.getAuctionCategory(i)
-							+ " submitting bid with alloc= "
-							+ agent.getAllocation(i) + " own= "
-							+ agent.getOwn(i));
+				if (price > 0) { // bidding the prices initiallly
+					Bid bid = new Bid(i);
+					bid.addBidPoint(alloc, price);
+					if (DEBUG) {
+						log.finest("Type of auction: "
+								+ agent.getAuctionCategory(i)
+								+ " submitting bid with alloc= "
+								+ agent.getAllocation(i) + " own= "
+								+ agent.getOwn(i));
+					}
+					agent.submitBid(bid);
 				}
-				agent.submitBid(bid);
 			}
+		} finally {
+			agent.endBatch();
 		}
 	}
 
@@ -356,6 +385,8 @@ public class DummyAgent extends AgentImpl {
 	 * calculates for each client the preferences he has for each category.
 	 */
 	private void calculateAllocation() {
+		// the utility of the allocation if all goods are bought
+		int utility = 0;
 
 		for (int i = 0; i < 8; i++) { // for every client
 			log.finer("---------------------------------------------------------");
@@ -366,6 +397,7 @@ public class DummyAgent extends AgentImpl {
 			int type; // good (=1) or bad (=0) hotel
 
 			if ((outFlight - inFlight) < 3) {
+				utility += TRIP_UTILITY;
 
 				// -------------------------------------------------------------
 				// ================ FLIGHT ALLOCATION ==========================
@@ -394,6 +426,7 @@ public class DummyAgent extends AgentImpl {
 				// expensive hotel (type = 1)
 				if (hotel > HOTEL_SATISFACTION_THRESHOLD) {
 					type = TACAgent.TYPE_GOOD_HOTEL;
+					utility += hotel;
 				} else {
 					type = TACAgent.TYPE_CHEAP_HOTEL;
 				}
@@ -440,9 +473,14 @@ public class DummyAgent extends AgentImpl {
 							+ days[k] + " on auction " + auction);
 					agent.setAllocation(auction,
 							agent.getAllocation(auction) + 1);
+					// the event types are in the same order as the
+					// preferences E1, E2 and E3
+					utility += agent.getClientPreference(i, TACAgent.E1
+							+ eTypes[k] - TACAgent.TYPE_ALLIGATOR_WRESTLING);
 				}
 			}
 		}
+		agent.getPositionLedger().setUtility(utility);
 	}
 
 	/**
@@ -598,7 +636,20 @@ public class DummyAgent extends AgentImpl {
 
 				int id = i;
 				if (agent.getGameTimeLeft() <= FLIGHT_TIMELIMIT) {
+					// No time left to wait for lower prices
 					id = checkForDateChange(i);
+				} else {
+					// Buy at the current price unless the price is
+					// expected to fall later in the game or too few
+					// quotes have been received to tell
+					float ask = agent.getQuote(i).getAskPrice();
+					if (ask > 0
+							&& flightPredictor.shouldBuyNow(i, ask,
+									agent.getGameTime(),
+									agent.getGameLength(), FLIGHT_TOLERANCE)
+							&& prices[i] < ask) {
+						prices[i] = ask;
+					}
 				}
 
 				bid = new Bid(id);
@@ -652,6 +703,12 @@ public class DummyAgent extends AgentImpl {
 						+ alloc);
 				agent.setAllocation(i, agent.getAllocation(i) - alloc);
 
+				// each of the moved clients travels one day off the
+				// preferred dates
+				PositionLedger ledger = agent.getPositionLedger();
+				ledger.setUtility(ledger.getUtility() - alloc
+						* TRAVEL_PENALTY);
+
 				// decrease allocation for hotels
 				// for now it just decreases any allocs it finds (starting with
 				// good hotel) independent of preferences
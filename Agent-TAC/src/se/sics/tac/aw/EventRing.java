@@ -0,0 +1,341 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * EventRing
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A ring of pre-allocated market events between the threads handling
+ *   the server messages (the producers) and any number of event
+ *   handlers (the consumers). Each handler has its own thread and
+ *   sequence and all handlers see all events in the order they were
+ *   published, independently of each other.
+ *
+ *   A producer claims the next sequence, waits if the slowest handler
+ *   is a full ring behind, fills in the event and marks the slot as
+ *   published. Nothing is allocated when publishing. Waiting
+ *   producers spin briefly, then yield and finally park for short
+ *   periods. Idle handlers park until woken up by the next publish.
+ *
+ *   A handler publishing events (for example when an agent callback
+ *   calls back into the agent) can not wait for a full ring since it
+ *   might be the handler the ring is waiting for. Such events are
+ *   instead kept in an unbounded overflow queue that is moved into the
+ *   ring by the handlers as they make room for it.
+ *
+ *   The time from the publication of an event until a handler has
+ *   handled it is measured per handler in microseconds.
+ */
+
+package se.sics.tac.aw;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+class EventRing {
+
+  private static final Logger log =
+    Logger.getLogger(EventRing.class.getName());
+
+  private final static int SPIN_TRIES = 100;
+  private final static int YIELD_TRIES = 200;
+  private final static long PARK_NANOS = 100000L;
+
+  private final MarketEvent[] events;
+  private final int mask;
+  // The sequence last published in each slot
+  private final AtomicLongArray published;
+  // The next sequence to claim
+  private final AtomicLong next = new AtomicLong();
+  // Number of times a producer had to wait for a full ring
+  private final AtomicLong fullCount = new AtomicLong();
+
+  private volatile Consumer[] consumers = new Consumer[0];
+
+  // Events published while the ring was full by handler threads, in
+  // publish order. Only accessed while holding the overflow lock.
+  private final ArrayDeque<MarketEvent> overflow =
+    new ArrayDeque<MarketEvent>();
+  private volatile int overflowSize = 0;
+  // Number of events that had to be put in the overflow queue
+  private final AtomicLong overflowCount = new AtomicLong();
+
+  public EventRing(int size) {
+    int capacity = 2;
+    while (capacity < size) {
+      capacity <<= 1;
+    }
+    events = new MarketEvent[capacity];
+    published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      events[i] = new MarketEvent();
+      published.set(i, -1L);
+    }
+    mask = capacity - 1;
+  }
+
+  public int getSize() {
+    return events.length;
+  }
+
+  /**
+   * Adds a handler that will receive all events published from now on
+   * in its own thread.
+   */
+  public synchronized void addHandler(MarketEventHandler handler,
+				      String name) {
+    Consumer consumer = new Consumer(handler, name, next.get() - 1);
+    Thread thread = new Thread(consumer, "event-" + name);
+    thread.setDaemon(true);
+    consumer.thread = thread;
+
+    Consumer[] tmp = new Consumer[consumers.length + 1];
+    System.arraycopy(consumers, 0, tmp, 0, consumers.length);
+    tmp[consumers.length] = consumer;
+    consumers = tmp;
+    thread.start();
+  }
+
+  public void publish(int type, int auction, Object data, long value) {
+    if (overflowSize > 0 || isConsumerThread()) {
+      publishFromHandler(type, auction, data, value);
+      return;
+    }
+
+    long sequence = next.getAndIncrement();
+    long wrapPoint = sequence - events.length;
+    if (getMinimumSequence() < wrapPoint) {
+      // The ring is full: wait for the slowest handler
+      fullCount.incrementAndGet();
+      for (int i = 0; getMinimumSequence() < wrapPoint; i++) {
+	idle(i);
+      }
+    }
+    write(sequence, type, auction, data, value, System.nanoTime());
+  }
+
+  // Publishes without waiting for a full ring. Events are put in the
+  // overflow queue while there is no room in the ring or while earlier
+  // events are still waiting there.
+  private void publishFromHandler(int type, int auction, Object data,
+				  long value) {
+    synchronized (overflow) {
+      if (overflow.isEmpty()
+	  && tryWrite(type, auction, data, value, System.nanoTime())) {
+	return;
+      }
+      MarketEvent event = new MarketEvent();
+      event.type = type;
+      event.auction = auction;
+      event.data = data;
+      event.value = value;
+      event.publishTime = System.nanoTime();
+      overflow.addLast(event);
+      overflowSize = overflow.size();
+      overflowCount.incrementAndGet();
+      drainOverflow();
+    }
+  }
+
+  // Moves as many events as there is room for from the overflow queue
+  // into the ring. Must be called with the overflow lock held.
+  private void drainOverflow() {
+    MarketEvent event;
+    while ((event = overflow.peekFirst()) != null
+	   && tryWrite(event.type, event.auction, event.data, event.value,
+		       event.publishTime)) {
+      overflow.removeFirst();
+    }
+    overflowSize = overflow.size();
+  }
+
+  // Claims the next sequence and writes the event if there is room in
+  // the ring without waiting
+  private boolean tryWrite(int type, int auction, Object data, long value,
+			   long publishTime) {
+    long sequence;
+    do {
+      sequence = next.get();
+      if (getMinimumSequence() < sequence - events.length) {
+	return false;
+      }
+    } while (!next.compareAndSet(sequence, sequence + 1));
+    write(sequence, type, auction, data, value, publishTime);
+    return true;
+  }
+
+  private void write(long sequence, int type, int auction, Object data,
+		     long value, long publishTime) {
+    int index = (int) sequence & mask;
+    MarketEvent event = events[index];
+    event.type = type;
+    event.auction = auction;
+    event.data = data;
+    event.value = value;
+    event.sequence = sequence;
+    event.publishTime = publishTime;
+    published.set(index, sequence);
+    Consumer[] consumers = this.consumers;
+    for (int i = 0, n = consumers.length; i < n; i++) {
+      // Dekker style handshake with the consumer: it announces that it
+      // is parked before checking the slot again
+      if (consumers[i].isParked) {
+	LockSupport.unpark(consumers[i].thread);
+      }
+    }
+  }
+
+  private boolean isConsumerThread() {
+    Thread current = Thread.currentThread();
+    Consumer[] consumers = this.consumers;
+    for (int i = 0, n = consumers.length; i < n; i++) {
+      if (consumers[i].thread == current) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  private long getMinimumSequence() {
+    Consumer[] consumers = this.consumers;
+    long min = Long.MAX_VALUE;
+    for (int i = 0, n = consumers.length; i < n; i++) {
+      long sequence = consumers[i].sequence.get();
+      if (sequence < min) {
+	min = sequence;
+      }
+    }
+    return min;
+  }
+
+  private static void idle(int tries) {
+    if (tries < SPIN_TRIES) {
+      // Busy wait
+    } else if (tries < YIELD_TRIES) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the number of events not yet handled by all handlers.
+   */
+  public int getQueueDepth() {
+    long min = getMinimumSequence();
+    return min == Long.MAX_VALUE ? 0 : (int) (next.get() - 1 - min);
+  }
+
+  public String getStatistics() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("ring size ").append(events.length)
+      .append(", ").append(next.get()).append(" events, full ")
+      .append(fullCount.get()).append(" times, overflow ")
+      .append(overflowCount.get()).append(" events");
+    Consumer[] consumers = this.consumers;
+    for (int i = 0, n = consumers.length; i < n; i++) {
+      sb.append("\n  ").append(consumers[i].name).append(" latency (us) ")
+	.append(consumers[i].latency);
+    }
+    return sb.toString();
+  }
+
+  public void resetStatistics() {
+    fullCount.set(0L);
+    overflowCount.set(0L);
+    Consumer[] consumers = this.consumers;
+    for (int i = 0, n = consumers.length; i < n; i++) {
+      consumers[i].latency.reset();
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Consumer - one event handler thread
+  // -------------------------------------------------------------------
+
+  private class Consumer implements Runnable {
+
+    private final MarketEventHandler handler;
+    private final String name;
+    // The last handled sequence
+    private final AtomicLong sequence;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    // Set before the thread is started
+    private Thread thread;
+    private volatile boolean isParked;
+
+    Consumer(MarketEventHandler handler, String name, long sequence) {
+      this.handler = handler;
+      this.name = name;
+      this.sequence = new AtomicLong(sequence);
+    }
+
+    public void run() {
+      long nextSequence = sequence.get() + 1;
+      while (true) {
+	int index = (int) nextSequence & mask;
+	for (int i = 0; published.get(index) != nextSequence; i++) {
+	  if (i < YIELD_TRIES) {
+	    idle(i);
+	  } else {
+	    // Nothing published for a while: park until woken up by the
+	    // next publish. The publisher checks isParked after marking
+	    // the slot as published so either the slot is seen here or
+	    // the publisher unparks this thread.
+	    isParked = true;
+	    if (published.get(index) != nextSequence) {
+	      LockSupport.park(this);
+	    }
+	    isParked = false;
+	  }
+	}
+
+	MarketEvent event = events[index];
+	try {
+	  handler.eventReceived(event);
+	} catch (ThreadDeath e) {
+	  throw e;
+	} catch (Throwable e) {
+	  log.log(Level.SEVERE, name + " could not handle " + event, e);
+	}
+	latency.record((System.nanoTime() - event.publishTime) / 1000);
+	sequence.set(nextSequence++);
+
+	if (overflowSize > 0) {
+	  // Room has been made for events waiting in the overflow queue
+	  synchronized (overflow) {
+	    drainOverflow();
+	  }
+	}
+      }
+    }
+
+  } // Consumer
+
+} // EventRing
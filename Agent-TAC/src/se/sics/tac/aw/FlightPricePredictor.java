@@ -0,0 +1,202 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * FlightPricePredictor
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Predicts the flight prices for the rest of the game from the
+ *   received flight quotes. The flight prices follow a random walk
+ *   whose expected step grows linearly during the game, so the
+ *   expected price is a quadratic function of the game time. The
+ *   coefficients are estimated per auction using recursive least
+ *   squares with a forgetting factor, updated in constant time for
+ *   each quote without allocating.
+ *
+ *   The state of each auction is independent and may be updated and
+ *   read by different threads for different auctions.
+ */
+
+package se.sics.tac.aw;
+
+public class FlightPricePredictor {
+
+  public final static float MIN_FLIGHT_PRICE = 150f;
+  public final static float MAX_FLIGHT_PRICE = 800f;
+
+  // Time between flight price changes in ms
+  private final static long PRICE_PERIOD = 10000L;
+  // Quotes needed before the predictions are used
+  private final static int MIN_SAMPLES = 6;
+  // Forgetting factor for older quotes
+  private final static double LAMBDA = 0.98;
+  // Initial covariance (no knowledge about the coefficients)
+  private final static double INITIAL_P = 1e4;
+
+  // Coefficients (price = c0 + c1 x + c2 x^2 with x = time in minutes)
+  // and covariance (3 x 3) per auction
+  private final double[][] coefficients;
+  private final double[][] covariance;
+  private final int[] samples;
+  private final long[] lastTime;
+
+  public FlightPricePredictor(int auctions) {
+    coefficients = new double[auctions][3];
+    covariance = new double[auctions][9];
+    samples = new int[auctions];
+    lastTime = new long[auctions];
+    clear();
+  }
+
+  public void clear() {
+    for (int i = 0, n = samples.length; i < n; i++) {
+      clear(i);
+    }
+  }
+
+  public void clear(int auction) {
+    double[] c = coefficients[auction];
+    double[] p = covariance[auction];
+    synchronized (c) {
+      c[0] = c[1] = c[2] = 0.0;
+      for (int i = 0; i < 9; i++) {
+	p[i] = (i % 4) == 0 ? INITIAL_P : 0.0;
+      }
+      samples[auction] = 0;
+      lastTime[auction] = -1L;
+    }
+  }
+
+  /**
+   * Adds a flight quote. Only the first quote in each price period is
+   * used since the price does not change within a period.
+   *
+   * @param auction the flight auction
+   * @param gameTime the game time in ms when the quote was received
+   * @param askPrice the ask price of the quote
+   */
+  public void addQuote(int auction, long gameTime, float askPrice) {
+    if (askPrice <= 0f) {
+      // No price yet
+      return;
+    }
+    double[] c = coefficients[auction];
+    double[] p = covariance[auction];
+    synchronized (c) {
+      long period = gameTime / PRICE_PERIOD;
+      long last = lastTime[auction];
+      if (last >= 0 && last / PRICE_PERIOD == period) {
+	return;
+      }
+      lastTime[auction] = gameTime;
+
+      double x = gameTime / 60000.0;
+      double f0 = 1.0, f1 = x, f2 = x * x;
+      // P * f
+      double pf0 = p[0] * f0 + p[1] * f1 + p[2] * f2;
+      double pf1 = p[3] * f0 + p[4] * f1 + p[5] * f2;
+      double pf2 = p[6] * f0 + p[7] * f1 + p[8] * f2;
+      double denom = LAMBDA + f0 * pf0 + f1 * pf1 + f2 * pf2;
+      double k0 = pf0 / denom, k1 = pf1 / denom, k2 = pf2 / denom;
+      double error = askPrice - (c[0] * f0 + c[1] * f1 + c[2] * f2);
+      c[0] += k0 * error;
+      c[1] += k1 * error;
+      c[2] += k2 * error;
+
+      // P = (P - k (P f)^T) / lambda (P is symmetric)
+      p[0] = (p[0] - k0 * pf0) / LAMBDA;
+      p[1] = (p[1] - k0 * pf1) / LAMBDA;
+      p[2] = (p[2] - k0 * pf2) / LAMBDA;
+      p[3] = (p[3] - k1 * pf0) / LAMBDA;
+      p[4] = (p[4] - k1 * pf1) / LAMBDA;
+      p[5] = (p[5] - k1 * pf2) / LAMBDA;
+      p[6] = (p[6] - k2 * pf0) / LAMBDA;
+      p[7] = (p[7] - k2 * pf1) / LAMBDA;
+      p[8] = (p[8] - k2 * pf2) / LAMBDA;
+      samples[auction]++;
+    }
+  }
+
+  /**
+   * Returns true if enough quotes have been received for the auction
+   * to make predictions.
+   */
+  public boolean isReliable(int auction) {
+    synchronized (coefficients[auction]) {
+      return samples[auction] >= MIN_SAMPLES;
+    }
+  }
+
+  /**
+   * Returns the expected price of the auction at the specified game
+   * time.
+   */
+  public float getPrice(int auction, long gameTime) {
+    double[] c = coefficients[auction];
+    synchronized (c) {
+      double x = gameTime / 60000.0;
+      return clamp(c[0] + c[1] * x + c[2] * x * x);
+    }
+  }
+
+  /**
+   * Returns the lowest expected price of the auction from the specified
+   * game time until the end of the game.
+   */
+  public float getMinimumPrice(int auction, long gameTime, long gameLength) {
+    double[] c = coefficients[auction];
+    synchronized (c) {
+      double min = Double.MAX_VALUE;
+      for (long t = gameTime; t <= gameLength; t += PRICE_PERIOD) {
+	double x = t / 60000.0;
+	double price = c[0] + c[1] * x + c[2] * x * x;
+	if (price < min) {
+	  min = price;
+	}
+      }
+      return min == Double.MAX_VALUE ? MAX_FLIGHT_PRICE : clamp(min);
+    }
+  }
+
+  /**
+   * Returns true if the flight should be bought now at the specified
+   * price, i.e. the price is not expected to fall more than the
+   * tolerance later in the game. Returns false, i.e. wait, if too few
+   * quotes have been received to tell.
+   */
+  public boolean shouldBuyNow(int auction, float askPrice, long gameTime,
+			      long gameLength, float tolerance) {
+    if (!isReliable(auction)) {
+      return false;
+    }
+    return getMinimumPrice(auction, gameTime + PRICE_PERIOD, gameLength)
+      >= askPrice - tolerance;
+  }
+
+  private static float clamp(double price) {
+    if (price < MIN_FLIGHT_PRICE) {
+      return MIN_FLIGHT_PRICE;
+    }
+    if (price > MAX_FLIGHT_PRICE) {
+      return MAX_FLIGHT_PRICE;
+    }
+    return (float) price;
+  }
+
+} // FlightPricePredictor
@@ -0,0 +1,431 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameJournal
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   An append-only journal of the bids, transactions and allocations
+ *   of the agent in a game, used to restore the state locally if the
+ *   agent is restarted during the game. The journal is a memory
+ *   mapped file so each record is in the operating system's file
+ *   cache as soon as it has been written, and it survives the agent
+ *   process dying at any point.
+ *
+ *   Each record has a header with the length and a CRC32 checksum of
+ *   the record data. The length is written last so a record is
+ *   either complete or ignored when the journal is read. Reading
+ *   stops at the first incomplete or damaged record and new records
+ *   are written from there.
+ *
+ *   Transactions are only restored up to the last checkpoint, i.e.
+ *   the last transaction ID for which all earlier transactions have
+ *   been journaled. Later transactions are requested from the server.
+ *   A transaction is only restored once even if it was journaled again
+ *   after a restart.
+ */
+
+package se.sics.tac.aw;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+class GameJournal {
+
+  /** Record types */
+  private final static byte BID = 1;
+  private final static byte TRANSACTION = 2;
+  private final static byte CHECKPOINT = 3;
+  private final static byte ALLOCATION = 4;
+
+  private final static Charset CHARSET = Charset.forName("UTF-8");
+
+  // Record length and checksum
+  private final static int HEADER_SIZE = 8;
+  private final static int INITIAL_SIZE = 64 * 1024;
+
+  private final File file;
+  private final RandomAccessFile randomFile;
+  private final FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int position;
+  private int recordCount;
+
+  private ByteBuffer record = ByteBuffer.allocate(256);
+  private final CRC32 crc = new CRC32();
+
+  // The state read from the journal
+  private final int[] bidIDs;
+  private final int[] bidStates;
+  private final String[] bidHashes;
+  private final String[] bidStrings;
+  private final int[] allocations;
+  private int checkpoint = -1;
+  private int transactionCount;
+  private int[] transIDs = new int[16];
+  private int[] transAuctions = new int[16];
+  private int[] transQuantities = new int[16];
+  private float[] transPrices = new float[16];
+
+  public GameJournal(File file, int auctions) throws IOException {
+    this.file = file;
+    bidIDs = new int[auctions];
+    bidStates = new int[auctions];
+    bidHashes = new String[auctions];
+    bidStrings = new String[auctions];
+    allocations = new int[auctions];
+    for (int i = 0; i < auctions; i++) {
+      bidIDs[i] = Bid.NO_ID;
+    }
+
+    randomFile = new RandomAccessFile(file, "rw");
+    try {
+      channel = randomFile.getChannel();
+      long length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+	throw new IOException("journal " + file + " too large");
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+			   Math.max((int) length, INITIAL_SIZE));
+      readRecords();
+    } catch (IOException e) {
+      randomFile.close();
+      throw e;
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns true if the journal contained any records when opened.
+   */
+  public boolean hasRecords() {
+    return recordCount > 0;
+  }
+
+  public synchronized void close() {
+    try {
+      buffer.force();
+      randomFile.close();
+    } catch (IOException e) {
+      // Already written to the file cache
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Writing
+  // -------------------------------------------------------------------
+
+  /**
+   * Journals the active bid in the auction or that there is no active
+   * bid if the bid is null.
+   */
+  public synchronized void bidChanged(int auction, Bid bid) {
+    beginRecord(BID);
+    record.put((byte) auction);
+    if (bid == null) {
+      record.putInt(Bid.NO_ID);
+      record.put((byte) Bid.UNPROCESSED);
+      putString(null);
+      putString(null);
+    } else {
+      record.putInt(bid.getID());
+      record.put((byte) bid.getProcessingState());
+      putString(bid.getBidHash());
+      putString(bid.getBidString());
+    }
+    endRecord();
+  }
+
+  public synchronized void transaction(int transID, int auction,
+				       int quantity, float price) {
+    if (indexOfTransaction(transID) >= 0) {
+      // Already journaled before the agent was restarted
+      return;
+    }
+    beginRecord(TRANSACTION);
+    record.put((byte) auction);
+    record.putInt(transID);
+    record.putInt(quantity);
+    record.putFloat(price);
+    endRecord();
+  }
+
+  /**
+   * Journals that all transactions up to and including the specified
+   * transaction ID have been journaled.
+   */
+  public synchronized void checkpoint(int transID) {
+    beginRecord(CHECKPOINT);
+    record.putInt(transID);
+    endRecord();
+  }
+
+  /**
+   * Journals the allocation for the auction or clears all allocations
+   * if the auction is -1.
+   */
+  public synchronized void allocation(int auction, int alloc) {
+    beginRecord(ALLOCATION);
+    record.put((byte) auction);
+    record.putInt(alloc);
+    endRecord();
+  }
+
+  private void beginRecord(byte type) {
+    ((Buffer) record).clear();
+    record.put(type);
+  }
+
+  private void putString(String value) {
+    if (value == null) {
+      ensureRecord(2);
+      record.putShort((short) -1);
+    } else {
+      byte[] data = value.getBytes(CHARSET);
+      ensureRecord(2 + data.length);
+      record.putShort((short) data.length);
+      record.put(data);
+    }
+  }
+
+  private void ensureRecord(int size) {
+    if (record.remaining() < size) {
+      ByteBuffer tmp = ByteBuffer.allocate((record.capacity() + size) * 2);
+      tmp.put(record.array(), 0, record.position());
+      record = tmp;
+    }
+  }
+
+  private void endRecord() {
+    byte[] data = record.array();
+    int length = record.position();
+    try {
+      ensureCapacity(position + HEADER_SIZE + length);
+    } catch (IOException e) {
+      // The journal is only used to speed up recovery
+      return;
+    }
+    MappedByteBuffer buffer = this.buffer;
+    int start = position + HEADER_SIZE;
+    for (int i = 0; i < length; i++) {
+      buffer.put(start + i, data[i]);
+    }
+    crc.reset();
+    crc.update(data, 0, length);
+    buffer.putInt(position + 4, (int) crc.getValue());
+    // The record is complete when the length has been written
+    buffer.putInt(position, length);
+    position = start + length;
+  }
+
+  private void ensureCapacity(int size) throws IOException {
+    if (size > buffer.capacity()) {
+      int newSize = buffer.capacity() * 2;
+      if (newSize < size) {
+	newSize = size;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Reading
+  // -------------------------------------------------------------------
+
+  private void readRecords() {
+    MappedByteBuffer buffer = this.buffer;
+    int capacity = buffer.capacity();
+    int pos = 0;
+    while (pos + HEADER_SIZE <= capacity) {
+      int length = buffer.getInt(pos);
+      if (length <= 0 || length > capacity - pos - HEADER_SIZE) {
+	break;
+      }
+      int start = pos + HEADER_SIZE;
+      crc.reset();
+      for (int i = 0; i < length; i++) {
+	crc.update(buffer.get(start + i));
+      }
+      if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+	// Incomplete record
+	break;
+      }
+      readRecord(buffer, start);
+      recordCount++;
+      pos = start + length;
+    }
+    position = pos;
+  }
+
+  private void readRecord(ByteBuffer buffer, int pos) {
+    switch (buffer.get(pos)) {
+    case BID: {
+      int auction = buffer.get(pos + 1);
+      bidIDs[auction] = buffer.getInt(pos + 2);
+      bidStates[auction] = buffer.get(pos + 6);
+      pos += 7;
+      bidHashes[auction] = getString(buffer, pos);
+      pos += getStringSize(buffer, pos);
+      bidStrings[auction] = getString(buffer, pos);
+      break;
+    }
+    case TRANSACTION:
+      if (indexOfTransaction(buffer.getInt(pos + 2)) >= 0) {
+	// A transaction journaled again after a restart is only
+	// restored once
+	break;
+      }
+      if (transactionCount == transIDs.length) {
+	int size = transactionCount * 2;
+	transIDs = grow(transIDs, size);
+	transAuctions = grow(transAuctions, size);
+	transQuantities = grow(transQuantities, size);
+	float[] tmp = new float[size];
+	System.arraycopy(transPrices, 0, tmp, 0, transactionCount);
+	transPrices = tmp;
+      }
+      transAuctions[transactionCount] = buffer.get(pos + 1);
+      transIDs[transactionCount] = buffer.getInt(pos + 2);
+      transQuantities[transactionCount] = buffer.getInt(pos + 6);
+      transPrices[transactionCount] = buffer.getFloat(pos + 10);
+      transactionCount++;
+      break;
+    case CHECKPOINT: {
+      int transID = buffer.getInt(pos + 1);
+      if (transID > checkpoint) {
+	checkpoint = transID;
+      }
+      break;
+    }
+    case ALLOCATION: {
+      int auction = buffer.get(pos + 1);
+      int alloc = buffer.getInt(pos + 2);
+      if (auction < 0) {
+	for (int i = 0, n = allocations.length; i < n; i++) {
+	  allocations[i] = 0;
+	}
+      } else {
+	allocations[auction] = alloc;
+      }
+      break;
+    }
+    }
+  }
+
+  private int indexOfTransaction(int transID) {
+    for (int i = 0; i < transactionCount; i++) {
+      if (transIDs[i] == transID) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  private static String getString(ByteBuffer buffer, int pos) {
+    int length = buffer.getShort(pos);
+    if (length < 0) {
+      return null;
+    }
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = buffer.get(pos + 2 + i);
+    }
+    return new String(data, CHARSET);
+  }
+
+  private static int getStringSize(ByteBuffer buffer, int pos) {
+    int length = buffer.getShort(pos);
+    return length < 0 ? 2 : 2 + length;
+  }
+
+  private static int[] grow(int[] array, int size) {
+    int[] tmp = new int[size];
+    System.arraycopy(array, 0, tmp, 0, array.length);
+    return tmp;
+  }
+
+
+  // -------------------------------------------------------------------
+  // The journaled state
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the last journaled transaction ID for which all earlier
+   * transactions are journaled or -1 if no such transaction exists.
+   */
+  public int getCheckpoint() {
+    return checkpoint;
+  }
+
+  public int getBidID(int auction) {
+    return bidIDs[auction];
+  }
+
+  public int getBidState(int auction) {
+    return bidStates[auction];
+  }
+
+  public String getBidHash(int auction) {
+    return bidHashes[auction];
+  }
+
+  public String getBidString(int auction) {
+    return bidStrings[auction];
+  }
+
+  public int getAllocation(int auction) {
+    return allocations[auction];
+  }
+
+  /**
+   * Returns the number of journaled transactions. Only the
+   * transactions up to the checkpoint should be restored.
+   */
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  public int getTransactionID(int index) {
+    return transIDs[index];
+  }
+
+  public int getTransactionAuction(int index) {
+    return transAuctions[index];
+  }
+
+  public int getTransactionQuantity(int index) {
+    return transQuantities[index];
+  }
+
+  public float getTransactionPrice(int index) {
+    return transPrices[index];
+  }
+
+} // GameJournal
@@ -0,0 +1,160 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * HeapTaskQueue
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A task queue kept as a binary heap ordered by time and by the
+ *   order the tasks were added for tasks with the same time. Adding
+ *   and removing tasks is O(log n). Cancelled tasks are left in the
+ *   heap and removed in one pass before the heap needs to grow.
+ */
+
+package se.sics.tac.aw;
+
+class HeapTaskQueue extends TaskQueue {
+
+  private TaskHandle[] heap = new TaskHandle[32];
+  private int size;
+
+  String getName() {
+    return "heap";
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(TaskHandle h, long currentTime) {
+    if (size == heap.length) {
+      removeCancelled();
+      if (size > (heap.length * 3) / 4) {
+	TaskHandle[] tmp = new TaskHandle[heap.length * 2];
+	System.arraycopy(heap, 0, tmp, 0, size);
+	heap = tmp;
+      }
+    }
+    siftUp(size++, h);
+  }
+
+  TaskHandle poll(long currentTime) {
+    if (size > 0) {
+      TaskHandle h = heap[0];
+      if (h.time <= currentTime || h.isCancelled()) {
+	removeAt(0);
+	return h;
+      }
+    }
+    return null;
+  }
+
+  long getNextTime() {
+    return size > 0 ? heap[0].time : Long.MAX_VALUE;
+  }
+
+  void cancel(Object key, Task task) {
+    for (int i = 0; i < size; i++) {
+      TaskHandle h = heap[i];
+      if (h.key == key && h.task == task) {
+	h.cancel();
+      }
+    }
+  }
+
+  void drainTo(TaskQueue queue, long currentTime) {
+    for (int i = 0; i < size; i++) {
+      if (!heap[i].isCancelled()) {
+	queue.add(heap[i], currentTime);
+      }
+      heap[i] = null;
+    }
+    size = 0;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Heap handling
+  // -------------------------------------------------------------------
+
+  // Removes all cancelled tasks and restores the heap order
+  private void removeCancelled() {
+    TaskHandle[] heap = this.heap;
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (!heap[i].isCancelled()) {
+	heap[n++] = heap[i];
+      }
+    }
+    for (int i = n; i < size; i++) {
+      heap[i] = null;
+    }
+    size = n;
+    for (int i = (n >>> 1) - 1; i >= 0; i--) {
+      siftDown(i, heap[i]);
+    }
+  }
+
+  private void removeAt(int index) {
+    int last = --size;
+    TaskHandle moved = heap[last];
+    heap[last] = null;
+    if (index < last) {
+      siftDown(index, moved);
+      if (heap[index] == moved) {
+	siftUp(index, moved);
+      }
+    }
+  }
+
+  private void siftUp(int index, TaskHandle h) {
+    TaskHandle[] heap = this.heap;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      TaskHandle p = heap[parent];
+      if (!h.isBefore(p)) {
+	break;
+      }
+      heap[index] = p;
+      index = parent;
+    }
+    heap[index] = h;
+  }
+
+  private void siftDown(int index, TaskHandle h) {
+    TaskHandle[] heap = this.heap;
+    int half = size >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      TaskHandle c = heap[child];
+      int right = child + 1;
+      if (right < size && heap[right].isBefore(c)) {
+	child = right;
+	c = heap[child];
+      }
+      if (!c.isBefore(h)) {
+	break;
+      }
+      heap[index] = c;
+      index = child;
+    }
+    heap[index] = h;
+  }
+
+} // HeapTaskQueue
@@ -0,0 +1,165 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * LatencyHistogram
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A lock free histogram of non-negative values such as response
+ *   times in milliseconds. Values below 16 are counted exactly and
+ *   larger values in eight linear buckets per power of two, which
+ *   bounds the error of the reported percentiles to 12.5%. Recording a
+ *   value does not allocate and may be done from any thread.
+ *
+ *   The histogram is reset without locking and values recorded
+ *   concurrently with a reset might be partially counted.
+ */
+
+package se.sics.tac.aw;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+
+  private final static int SUB_BITS = 3;
+  private final static int SUB_COUNT = 1 << SUB_BITS;
+  // Values below this are counted in their own bucket
+  private final static int LINEAR_LIMIT = SUB_COUNT * 2;
+  private final static int BUCKETS = LINEAR_LIMIT
+    + (64 - SUB_BITS - 2) * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public LatencyHistogram() {
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+
+    long m;
+    while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+      // Retry until the maximum is updated or a larger value is set
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotal() {
+    return total.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.get();
+    return n == 0 ? 0.0 : (double) total.get() / n;
+  }
+
+  /**
+   * Returns the value below which the specified fraction of the
+   * recorded values fall, i.e. getPercentile(0.99) for p99. The value
+   * is the upper limit of the bucket holding the percentile.
+   *
+   * @param fraction the percentile as a value between 0 and 1
+   */
+  public long getPercentile(double fraction) {
+    long n = count.get();
+    if (n == 0) {
+      return 0L;
+    }
+    long rank = (long) Math.ceil(fraction * n);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long sum = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      sum += buckets.get(i);
+      if (sum >= rank) {
+	long value = getBucketLimit(i);
+	long m = max.get();
+	return value < m ? value : m;
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0L);
+    }
+    count.set(0L);
+    total.set(0L);
+    max.set(0L);
+  }
+
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("count=").append(getCount());
+    if (getCount() > 0) {
+      sb.append(" mean=").append((long) (getMean() + 0.5))
+	.append(" p50=").append(getPercentile(0.5))
+	.append(" p90=").append(getPercentile(0.9))
+	.append(" p99=").append(getPercentile(0.99))
+	.append(" max=").append(getMax());
+    }
+    return sb.toString();
+  }
+
+
+  // -------------------------------------------------------------------
+  // Bucket calculations
+  // -------------------------------------------------------------------
+
+  private static int getBucket(long value) {
+    if (value < LINEAR_LIMIT) {
+      return (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exp - SUB_BITS;
+    return LINEAR_LIMIT + (exp - SUB_BITS - 1) * SUB_COUNT
+      + (int) (value >>> shift) - SUB_COUNT;
+  }
+
+  // Returns the largest value counted in the specified bucket
+  private static long getBucketLimit(int bucket) {
+    if (bucket < LINEAR_LIMIT) {
+      return bucket;
+    }
+    int group = (bucket - LINEAR_LIMIT) / SUB_COUNT;
+    int sub = (bucket - LINEAR_LIMIT) % SUB_COUNT;
+    int shift = group + 1;
+    if (shift + SUB_BITS + 1 >= 63) {
+      return Long.MAX_VALUE;
+    }
+    return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+  }
+
+} // LatencyHistogram
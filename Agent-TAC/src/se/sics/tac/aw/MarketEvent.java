@@ -0,0 +1,140 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MarketEvent
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   An event in the event ring used by the "ring" callback mode. The
+ *   events are allocated once when the ring is created and reused, so
+ *   an event is only valid while it is being handled and must not be
+ *   kept by the handler.
+ */
+
+package se.sics.tac.aw;
+
+public final class MarketEvent {
+
+  /** Event types */
+  public final static int QUOTE_UPDATED = 0;
+  public final static int CATEGORY_UPDATED = 1;
+  public final static int BID_UPDATED = 2;
+  public final static int BID_REJECTED = 3;
+  public final static int BID_ERROR = 4;
+  public final static int GAME_STARTED = 5;
+  public final static int GAME_STOPPED = 6;
+  public final static int AUCTION_CLOSED = 7;
+  public final static int TRANSACTION = 8;
+  public final static int TACERROR = 9;
+  public final static int QUOTES_CHANGED = 10;
+
+  private final static String[] typeNames = {
+    "quoteUpdated", "quoteUpdated", "bidUpdated", "bidRejected",
+    "bidError", "gameStarted", "gameStopped", "auctionClosed",
+    "transaction", "tacerrorReceived", "quotesChanged"
+  };
+
+  // Set by the event ring when the event is published
+  int type;
+  int auction;
+  Object data;
+  // The category, error or auction as given by getValue() or the
+  // auction mask for QUOTES_CHANGED
+  long value;
+  long sequence;
+  long publishTime;
+
+  MarketEvent() {
+  }
+
+  public static String getTypeName(int type) {
+    return type >= 0 && type < typeNames.length
+      ? typeNames[type]
+      : Integer.toString(type);
+  }
+
+  public int getType() {
+    return type;
+  }
+
+  public String getTypeAsString() {
+    return getTypeName(type);
+  }
+
+  /**
+   * Returns the auction of the event or -1 if the event is not bound
+   * to an auction.
+   */
+  public int getAuction() {
+    return auction;
+  }
+
+  /**
+   * Returns the auction category for CATEGORY_UPDATED, the error for
+   * BID_ERROR and the auction for AUCTION_CLOSED.
+   */
+  public int getValue() {
+    return (int) value;
+  }
+
+  public Quote getQuote() {
+    return data instanceof Quote ? (Quote) data : null;
+  }
+
+  public Bid getBid() {
+    return data instanceof Bid ? (Bid) data : null;
+  }
+
+  public Transaction getTransaction() {
+    return data instanceof Transaction ? (Transaction) data : null;
+  }
+
+  /**
+   * Returns the auctions with changed quotes as a bit mask for
+   * QUOTES_CHANGED.
+   */
+  public long getAuctionMask() {
+    return type == QUOTES_CHANGED ? value : 0L;
+  }
+
+  public TACMessage getMessage() {
+    return data instanceof TACMessage ? (TACMessage) data : null;
+  }
+
+  /**
+   * Returns the sequence number of the event in the ring.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Returns the time the event was published as given by
+   * System.nanoTime().
+   */
+  public long getPublishTime() {
+    return publishTime;
+  }
+
+  public String toString() {
+    return "MarketEvent[" + sequence + ',' + getTypeAsString()
+      + ",auction=" + auction + ']';
+  }
+
+} // MarketEvent
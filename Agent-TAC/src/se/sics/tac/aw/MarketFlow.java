@@ -0,0 +1,61 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MarketFlow
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Interfaces for demand based streams of market data. They have the
+ *   same methods and contracts as java.util.concurrent.Flow, which is
+ *   not available in Java 8, so a subscriber can easily be adapted to
+ *   or from the Flow interfaces.
+ */
+
+package se.sics.tac.aw;
+
+public final class MarketFlow {
+
+  private MarketFlow() {
+  }
+
+  public static interface Publisher {
+    /**
+     * Adds the subscriber. The subscriber receives onSubscribe() and
+     * then items as requested through the subscription.
+     */
+    public void subscribe(Subscriber subscriber);
+  }
+
+  public static interface Subscriber {
+    public void onSubscribe(Subscription subscription);
+    public void onNext(Object item);
+    public void onError(Throwable throwable);
+    public void onComplete();
+  }
+
+  public static interface Subscription {
+    /**
+     * Adds n items to the demand of the subscriber. A non-positive n
+     * cancels the subscription with an IllegalArgumentException.
+     */
+    public void request(long n);
+    public void cancel();
+  }
+
+} // MarketFlow
@@ -0,0 +1,136 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MarketSnapshot
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   An immutable view of the market state for all auctions. The state
+ *   is kept as one array per attribute indexed by auction. TACAgent
+ *   publishes a new snapshot after each change of quotes, ownership,
+ *   bids or allocation and the latest snapshot can be read by any
+ *   thread without locking. All values in a snapshot are from the same
+ *   point in time, unlike calls to getQuote(), getOwn(), etc, which
+ *   read the live state one auction at a time.
+ */
+
+package se.sics.tac.aw;
+
+public final class MarketSnapshot {
+
+  private final long version;
+  private final int gameID;
+  private final long serverTime;
+
+  // Filled in by TACAgent before the snapshot is published
+  final int[] auctionIDs;
+  final float[] askPrices;
+  final float[] bidPrices;
+  final int[] hqws;
+  final int[] status;
+  final int[] owns;
+  final int[] probablyOwns;
+  final float[] costs;
+  final int[] allocations;
+
+  MarketSnapshot(long version, int gameID, long serverTime,
+		 int auctions) {
+    this.version = version;
+    this.gameID = gameID;
+    this.serverTime = serverTime;
+    this.auctionIDs = new int[auctions];
+    this.askPrices = new float[auctions];
+    this.bidPrices = new float[auctions];
+    this.hqws = new int[auctions];
+    this.status = new int[auctions];
+    this.owns = new int[auctions];
+    this.probablyOwns = new int[auctions];
+    this.costs = new float[auctions];
+    this.allocations = new int[auctions];
+  }
+
+  /**
+   * Returns the version of this snapshot. Each published snapshot has
+   * a higher version than the one before.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public int getGameID() {
+    return gameID;
+  }
+
+  /**
+   * Returns the server time when this snapshot was created.
+   */
+  public long getServerTime() {
+    return serverTime;
+  }
+
+  public int getAuctionCount() {
+    return auctionIDs.length;
+  }
+
+  public int getAuctionID(int auction) {
+    return auctionIDs[auction];
+  }
+
+  public float getAskPrice(int auction) {
+    return askPrices[auction];
+  }
+
+  public float getBidPrice(int auction) {
+    return bidPrices[auction];
+  }
+
+  public int getHQW(int auction) {
+    return hqws[auction];
+  }
+
+  public int getAuctionStatus(int auction) {
+    return status[auction];
+  }
+
+  public boolean isAuctionClosed(int auction) {
+    return status[auction] == Quote.AUCTION_CLOSED;
+  }
+
+  public int getOwn(int auction) {
+    return owns[auction];
+  }
+
+  public int getProbablyOwn(int auction) {
+    return probablyOwns[auction];
+  }
+
+  public float getCost(int auction) {
+    return costs[auction];
+  }
+
+  public int getAllocation(int auction) {
+    return allocations[auction];
+  }
+
+  public String toString() {
+    return "MarketSnapshot[" + version + ",game=" + gameID
+      + ",time=" + serverTime + ']';
+  }
+
+} // MarketSnapshot
@@ -0,0 +1,336 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * MarketStream
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A publisher of market data items to any number of subscribers.
+ *   Each subscriber has its own buffer and receives its items from a
+ *   shared pool of stream threads, never from the thread publishing
+ *   the items, and only as many items as it has requested.
+ *
+ *   A conflating stream keeps only the latest item per key (auction)
+ *   for each subscriber so a slow subscriber skips intermediate items
+ *   instead of buffering them. Other streams buffer a bounded number
+ *   of items per subscriber and a subscriber that falls further
+ *   behind is cancelled with an error.
+ */
+
+package se.sics.tac.aw;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+class MarketStream implements MarketFlow.Publisher {
+
+  private static final Logger log =
+    Logger.getLogger(MarketStream.class.getName());
+
+  private static ExecutorService streamExecutor;
+
+  private final String name;
+  private final int conflateKeys;
+  private final int maxBuffered;
+
+  private StreamSubscription[] subscriptions = new StreamSubscription[0];
+  private volatile int subscriberCount = 0;
+
+  /**
+   * Creates a new stream.
+   *
+   * @param name the name of the stream
+   * @param conflateKeys the number of keys if only the latest item
+   *	per key should be kept or 0 if all items should be buffered
+   * @param maxBuffered the maximal number of items to buffer for a
+   *	subscriber in a stream that is not conflating
+   */
+  public MarketStream(String name, int conflateKeys, int maxBuffered) {
+    this.name = name;
+    this.conflateKeys = conflateKeys;
+    this.maxBuffered = maxBuffered;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void subscribe(MarketFlow.Subscriber subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException();
+    }
+    StreamSubscription subscription = new StreamSubscription(subscriber);
+    synchronized (this) {
+      StreamSubscription[] tmp =
+	new StreamSubscription[subscriptions.length + 1];
+      System.arraycopy(subscriptions, 0, tmp, 0, subscriptions.length);
+      tmp[subscriptions.length] = subscription;
+      subscriptions = tmp;
+      subscriberCount = tmp.length;
+    }
+    // onSubscribe is called by the stream thread
+    subscription.schedule();
+  }
+
+  /**
+   * Returns true if there are subscribers to this stream. Can be used
+   * to avoid creating items that no one will receive.
+   */
+  public boolean hasSubscribers() {
+    return subscriberCount > 0;
+  }
+
+  public void publish(int key, Object item) {
+    if (subscriberCount > 0) {
+      StreamSubscription[] subscriptions;
+      synchronized (this) {
+	subscriptions = this.subscriptions;
+      }
+      for (int i = 0, n = subscriptions.length; i < n; i++) {
+	subscriptions[i].offer(key, item);
+      }
+    }
+  }
+
+  private synchronized void remove(StreamSubscription subscription) {
+    for (int i = 0, n = subscriptions.length; i < n; i++) {
+      if (subscriptions[i] == subscription) {
+	StreamSubscription[] tmp = new StreamSubscription[n - 1];
+	System.arraycopy(subscriptions, 0, tmp, 0, i);
+	System.arraycopy(subscriptions, i + 1, tmp, i, n - i - 1);
+	subscriptions = tmp;
+	subscriberCount = tmp.length;
+	break;
+      }
+    }
+  }
+
+  private static synchronized ExecutorService getExecutor() {
+    if (streamExecutor == null) {
+      streamExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+	  private int counter = 0;
+
+	  public synchronized Thread newThread(Runnable r) {
+	    Thread thread = new Thread(r, "stream-" + (counter++));
+	    thread.setDaemon(true);
+	    return thread;
+	  }
+	});
+    }
+    return streamExecutor;
+  }
+
+
+  // -------------------------------------------------------------------
+  // StreamSubscription - the buffer and delivery for one subscriber
+  // -------------------------------------------------------------------
+
+  private class StreamSubscription implements MarketFlow.Subscription,
+					      Runnable {
+
+    private final MarketFlow.Subscriber subscriber;
+    // Number of pending requests to run the delivery loop
+    private final AtomicInteger work = new AtomicInteger();
+
+    // Conflated items: the latest item per key and the keys with an
+    // item in the order they first got one
+    private Object[] latest;
+    private int[] keyOrder;
+    private int keyStart;
+    private int keyCount;
+
+    private ArrayQueue queue;
+
+    private long demand;
+    private boolean isCancelled;
+    private Throwable error;
+
+    // Only accessed by the delivery loop
+    private boolean isSubscribed;
+    private boolean isErrorSent;
+
+    StreamSubscription(MarketFlow.Subscriber subscriber) {
+      this.subscriber = subscriber;
+      if (conflateKeys > 0) {
+	latest = new Object[conflateKeys];
+	keyOrder = new int[conflateKeys];
+      } else {
+	queue = new ArrayQueue();
+      }
+    }
+
+    void offer(int key, Object item) {
+      synchronized (this) {
+	if (isCancelled) {
+	  return;
+	}
+	if (latest != null) {
+	  if (latest[key] == null) {
+	    keyOrder[(keyStart + keyCount++) % keyOrder.length] = key;
+	  }
+	  latest[key] = item;
+	} else if (queue.size() >= maxBuffered) {
+	  fail(new IllegalStateException("subscriber to " + name
+					  + " stream more than "
+					  + maxBuffered + " items behind"));
+	} else {
+	  queue.add(item);
+	}
+	if (demand == 0 && error == null) {
+	  // Will be delivered when requested
+	  return;
+	}
+      }
+      schedule();
+    }
+
+    public void request(long n) {
+      synchronized (this) {
+	if (isCancelled) {
+	  return;
+	}
+	if (n <= 0) {
+	  fail(new IllegalArgumentException("non-positive request " + n));
+	} else {
+	  demand += n;
+	  if (demand < 0) {
+	    // Overflow: unbounded demand
+	    demand = Long.MAX_VALUE;
+	  }
+	}
+      }
+      schedule();
+    }
+
+    public void cancel() {
+      synchronized (this) {
+	isCancelled = true;
+	clear();
+      }
+      remove(this);
+    }
+
+    // Called with the lock held
+    private void fail(Throwable error) {
+      this.error = error;
+      isCancelled = true;
+      clear();
+      remove(this);
+    }
+
+    // Called with the lock held
+    private void clear() {
+      if (latest != null) {
+	for (int i = 0; i < keyCount; i++) {
+	  latest[keyOrder[(keyStart + i) % keyOrder.length]] = null;
+	}
+	keyStart = 0;
+	keyCount = 0;
+      } else {
+	queue.clear();
+      }
+    }
+
+    // Called with the lock held
+    private Object poll() {
+      if (latest != null) {
+	if (keyCount == 0) {
+	  return null;
+	}
+	int key = keyOrder[keyStart];
+	keyStart = (keyStart + 1) % keyOrder.length;
+	keyCount--;
+	Object item = latest[key];
+	latest[key] = null;
+	return item;
+      }
+      return queue.isEmpty() ? null : queue.remove(0);
+    }
+
+    void schedule() {
+      if (work.getAndIncrement() == 0) {
+	getExecutor().execute(this);
+      }
+    }
+
+    public void run() {
+      int missed = 1;
+      do {
+	if (!isSubscribed) {
+	  isSubscribed = true;
+	  try {
+	    subscriber.onSubscribe(this);
+	  } catch (Throwable e) {
+	    log.log(Level.SEVERE, "subscriber to " + name
+		    + " stream failed", e);
+	    cancel();
+	  }
+	}
+	deliver();
+	missed = work.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void deliver() {
+      while (true) {
+	Object item;
+	Throwable error;
+	synchronized (this) {
+	  error = this.error;
+	  if (error != null || isCancelled || demand == 0) {
+	    item = null;
+	  } else if ((item = poll()) != null && demand != Long.MAX_VALUE) {
+	    demand--;
+	  }
+	}
+
+	if (error != null) {
+	  if (!isErrorSent) {
+	    isErrorSent = true;
+	    try {
+	      subscriber.onError(error);
+	    } catch (Throwable e) {
+	      log.log(Level.SEVERE, "subscriber to " + name
+		      + " stream failed", e);
+	    }
+	  }
+	  return;
+	}
+	if (item == null) {
+	  return;
+	}
+	try {
+	  subscriber.onNext(item);
+	} catch (Throwable e) {
+	  log.log(Level.SEVERE, "subscriber to " + name
+		  + " stream failed", e);
+	  cancel();
+	  return;
+	}
+      }
+    }
+
+  } // StreamSubscription
+
+} // MarketStream
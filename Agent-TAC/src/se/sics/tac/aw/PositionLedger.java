@@ -0,0 +1,306 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * PositionLedger
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Keeps the position of the agent per auction, per auction category
+ *   and in total: the number of goods owned, bought and sold, the
+ *   cost of the bought goods and the revenue from the sold goods. The
+ *   ledger is updated in constant time for each transaction and can
+ *   be read from any thread without locking.
+ *
+ *   The estimated score is the utility set by the agent minus the
+ *   cost of all bought goods plus the revenue from all sold goods.
+ *   The utility is the one the agent plans for its allocation,
+ *   assuming all allocated goods are bought, so the agent should set
+ *   it again whenever it changes the allocation.
+ *
+ *   The values are kept in a single atomic array with a sequence
+ *   counter (a seqlock) so that values read together, such as the
+ *   cost and quantity for the average price, are consistent.
+ */
+
+package se.sics.tac.aw;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class PositionLedger {
+
+  // Fields per row
+  private final static int OWN = 0;
+  private final static int BOUGHT = 1;
+  private final static int SOLD = 2;
+  private final static int COST = 3;
+  private final static int REVENUE = 4;
+  private final static int FIELDS = 5;
+
+  private final static int CATEGORIES = 3;
+
+  private final int auctions;
+  // Rows for each auction, then each category and last the total
+  private final AtomicLongArray values;
+  private final int totalRow;
+  private volatile int utility;
+
+  // Odd while the values are being updated
+  private final AtomicInteger seq = new AtomicInteger();
+
+  public PositionLedger(int auctions) {
+    this.auctions = auctions;
+    this.totalRow = auctions + CATEGORIES;
+    this.values = new AtomicLongArray((totalRow + 1) * FIELDS);
+    clear();
+  }
+
+  /**
+   * Adds a transaction. A positive quantity means the goods were
+   * bought and a negative quantity that they were sold.
+   *
+   * @param auction the auction of the transaction
+   * @param quantity the quantity bought or sold
+   * @param price the price for each good
+   */
+  void addTransaction(int auction, int quantity, float price) {
+    int category = TACAgent.getAuctionCategory(auction);
+    beginUpdate();
+    try {
+      add(auction, quantity, price);
+      add(auctions + category, quantity, price);
+      add(totalRow, quantity, price);
+    } finally {
+      endUpdate();
+    }
+  }
+
+  /**
+   * Adds goods owned from the start of the game.
+   */
+  void addEndowment(int auction, int quantity) {
+    int category = TACAgent.getAuctionCategory(auction);
+    beginUpdate();
+    try {
+      addLong(auction, OWN, quantity);
+      addLong(auctions + category, OWN, quantity);
+      addLong(totalRow, OWN, quantity);
+    } finally {
+      endUpdate();
+    }
+  }
+
+  void clear() {
+    beginUpdate();
+    try {
+      // The raw bits of 0.0 are also 0
+      for (int i = 0, n = values.length(); i < n; i++) {
+	values.set(i, 0L);
+      }
+      utility = 0;
+    } finally {
+      endUpdate();
+    }
+  }
+
+  private void add(int row, int quantity, float price) {
+    addLong(row, OWN, quantity);
+    if (quantity > 0) {
+      addLong(row, BOUGHT, quantity);
+      addDouble(row, COST, (double) quantity * price);
+    } else if (quantity < 0) {
+      addLong(row, SOLD, -quantity);
+      addDouble(row, REVENUE, (double) -quantity * price);
+    }
+  }
+
+  // Only called by the updating thread
+  private void addLong(int row, int field, long value) {
+    int index = row * FIELDS + field;
+    values.set(index, values.get(index) + value);
+  }
+
+  private void addDouble(int row, int field, double value) {
+    int index = row * FIELDS + field;
+    values.set(index, Double.doubleToRawLongBits
+	       (Double.longBitsToDouble(values.get(index)) + value));
+  }
+
+  // Only one thread at the time may update the values
+  private void beginUpdate() {
+    int s;
+    while (((s = seq.get()) & 1) != 0 || !seq.compareAndSet(s, s + 1)) {
+      Thread.yield();
+    }
+  }
+
+  private void endUpdate() {
+    seq.incrementAndGet();
+  }
+
+
+  // -------------------------------------------------------------------
+  // Per auction
+  // -------------------------------------------------------------------
+
+  public int getOwn(int auction) {
+    return (int) getLong(auction, OWN);
+  }
+
+  public int getBought(int auction) {
+    return (int) getLong(auction, BOUGHT);
+  }
+
+  public int getSold(int auction) {
+    return (int) getLong(auction, SOLD);
+  }
+
+  public double getCost(int auction) {
+    return getDouble(auction, COST);
+  }
+
+  public double getRevenue(int auction) {
+    return getDouble(auction, REVENUE);
+  }
+
+  /**
+   * Returns the average price paid for the goods bought in the auction
+   * or 0 if nothing has been bought.
+   */
+  public double getAveragePrice(int auction) {
+    return getAverage(auction);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Per category (CAT_FLIGHT, CAT_HOTEL, CAT_ENTERTAINMENT)
+  // -------------------------------------------------------------------
+
+  public int getCategoryOwn(int category) {
+    return (int) getLong(auctions + category, OWN);
+  }
+
+  public int getCategoryBought(int category) {
+    return (int) getLong(auctions + category, BOUGHT);
+  }
+
+  public int getCategorySold(int category) {
+    return (int) getLong(auctions + category, SOLD);
+  }
+
+  public double getCategoryCost(int category) {
+    return getDouble(auctions + category, COST);
+  }
+
+  public double getCategoryRevenue(int category) {
+    return getDouble(auctions + category, REVENUE);
+  }
+
+  public double getCategoryAveragePrice(int category) {
+    return getAverage(auctions + category);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Totals and score
+  // -------------------------------------------------------------------
+
+  public double getTotalCost() {
+    return getDouble(totalRow, COST);
+  }
+
+  public double getTotalRevenue() {
+    return getDouble(totalRow, REVENUE);
+  }
+
+  public int getUtility() {
+    return utility;
+  }
+
+  /**
+   * Sets the utility the agent plans for its current allocation of
+   * goods to clients, assuming all allocated goods are bought. Used
+   * for the estimated score.
+   */
+  public void setUtility(int utility) {
+    beginUpdate();
+    this.utility = utility;
+    endUpdate();
+  }
+
+  /**
+   * Returns the estimated score: the utility minus the cost of all
+   * bought goods plus the revenue from all sold goods.
+   */
+  public double getEstimatedScore() {
+    int before;
+    double score;
+    do {
+      before = waitForUpdate();
+      score = utility
+	- Double.longBitsToDouble(values.get(totalRow * FIELDS + COST))
+	+ Double.longBitsToDouble(values.get(totalRow * FIELDS + REVENUE));
+    } while (seq.get() != before);
+    return score;
+  }
+
+  private long getLong(int row, int field) {
+    return values.get(row * FIELDS + field);
+  }
+
+  private double getDouble(int row, int field) {
+    return Double.longBitsToDouble(values.get(row * FIELDS + field));
+  }
+
+  private double getAverage(int row) {
+    int before;
+    long bought;
+    double cost;
+    do {
+      before = waitForUpdate();
+      bought = values.get(row * FIELDS + BOUGHT);
+      cost = Double.longBitsToDouble(values.get(row * FIELDS + COST));
+    } while (seq.get() != before);
+    return bought > 0 ? cost / bought : 0.0;
+  }
+
+  private int waitForUpdate() {
+    int s;
+    while (((s = seq.get()) & 1) != 0) {
+      // Update in progress
+      Thread.yield();
+    }
+    return s;
+  }
+
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    for (int i = 0; i < CATEGORIES; i++) {
+      sb.append(TACAgent.auctionCategoryToString(i))
+	.append(" own=").append(getCategoryOwn(i))
+	.append(" bought=").append(getCategoryBought(i))
+	.append(" sold=").append(getCategorySold(i))
+	.append(" cost=").append((long) getCategoryCost(i))
+	.append(" revenue=").append((long) getCategoryRevenue(i))
+	.append(", ");
+    }
+    sb.append("estimated score=").append((long) getEstimatedScore());
+    return sb.toString();
+  }
+
+} // PositionLedger
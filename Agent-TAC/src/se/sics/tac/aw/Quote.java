@@ -25,6 +25,8 @@
 
 package se.sics.tac.aw;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Quote {
 
   public final static int AUCTION_INITIALIZING = 0;
@@ -32,37 +34,162 @@ public class Quote {
   public final static int AUCTION_FINAL_CLEAR = 2;
   public final static int AUCTION_CLOSED = 3;
 
+  /** Change bits returned by update() */
+  public final static int ASK_PRICE_CHANGED = 1;
+  public final static int BID_PRICE_CHANGED = 2;
+  public final static int HQW_CHANGED = 4;
+  public final static int STATUS_CHANGED = 8;
+  public final static int ALL_CHANGED = 15;
+
   private final static String[] statusName = new String[] {
     "Initializing", "Intermediate Clear", "Final Clear", "Closed"
   };
 
   private final int auction;
-  private int hqw = -1;
-  private int status = AUCTION_INITIALIZING;
 
-  private long nextQuoteTime = -1L;
-  private long lastQuoteTime = 0L;
+  // Sequence counter for the quote fields (a seqlock). The counter is
+  // odd while the fields are being updated and a reader retries when
+  // the counter has changed during the read.
+  private final AtomicInteger seq = new AtomicInteger();
+
+  private volatile int hqw = -1;
+  private volatile int status = AUCTION_INITIALIZING;
 
-  private float askPrice;
-  private float bidPrice;
-  private Bid bid;
+  private volatile long nextQuoteTime = -1L;
+  private volatile long lastQuoteTime = 0L;
+
+  private volatile float askPrice;
+  private volatile float bidPrice;
+  private volatile Bid bid;
+
+  // The changes in the last update and whether any quote has been
+  // received since the quote was cleared
+  private volatile int changes;
+  private boolean hasQuote;
 
   Quote(int auctionNo) {
     auction = auctionNo;
   }
 
   void clearAll() {
-    askPrice = 0f;
-    bidPrice = 0f;
-    nextQuoteTime = -1L;
-    lastQuoteTime = 0L;
-    bid = null;
-    status = AUCTION_INITIALIZING;
-    hqw = -1;
+    beginUpdate();
+    try {
+      askPrice = 0f;
+      bidPrice = 0f;
+      nextQuoteTime = -1L;
+      lastQuoteTime = 0L;
+      bid = null;
+      status = AUCTION_INITIALIZING;
+      hqw = -1;
+      changes = 0;
+      hasQuote = false;
+    } finally {
+      endUpdate();
+    }
+  }
+
+  /**
+   * Updates all fields of a new quote at once.
+   *
+   * @return the change bits for the fields that changed, all bits for
+   *	the first quote after the quote was cleared
+   */
+  int update(float askPrice, float bidPrice, int hqw, int status,
+	     long nextQuoteTime, Bid bid) {
+    beginUpdate();
+    try {
+      int changes = 0;
+      if (!hasQuote) {
+	changes = ALL_CHANGED;
+	hasQuote = true;
+      } else {
+	if (askPrice != this.askPrice) {
+	  changes |= ASK_PRICE_CHANGED;
+	}
+	if (bidPrice != this.bidPrice) {
+	  changes |= BID_PRICE_CHANGED;
+	}
+	if (hqw != this.hqw || bid != this.bid) {
+	  changes |= HQW_CHANGED;
+	}
+	if (status != this.status) {
+	  changes |= STATUS_CHANGED;
+	}
+      }
+      this.changes = changes;
+      this.askPrice = askPrice;
+      this.bidPrice = bidPrice;
+      this.hqw = hqw;
+      this.status = status;
+      this.nextQuoteTime = nextQuoteTime;
+      this.bid = bid;
+      return changes;
+    } finally {
+      endUpdate();
+    }
+  }
+
+  /**
+   * Returns the change bits for the last update of this quote.
+   */
+  public int getChanges() {
+    return changes;
+  }
+
+  public boolean hasChanged() {
+    return changes != 0;
+  }
+
+  /**
+   * Copies the fields of this quote into the specified view. The copy
+   * is consistent, i.e. all values are from the same quote update,
+   * without locking or allocating.
+   *
+   * @return the specified view
+   */
+  public QuoteView read(QuoteView view) {
+    int before;
+    do {
+      while (((before = seq.get()) & 1) != 0) {
+	// Update in progress
+	Thread.yield();
+      }
+      view.auction = auction;
+      view.askPrice = askPrice;
+      view.bidPrice = bidPrice;
+      view.hqw = hqw;
+      view.status = status;
+      view.nextQuoteTime = nextQuoteTime;
+      view.lastQuoteTime = lastQuoteTime;
+      view.bid = bid;
+    } while (seq.get() != before);
+    view.version = before >>> 1;
+    return view;
+  }
+
+  /**
+   * Returns the number of updates of this quote.
+   */
+  public int getVersion() {
+    return seq.get() >>> 1;
+  }
+
+  // Only one thread at the time may update the fields
+  private void beginUpdate() {
+    int s;
+    while (((s = seq.get()) & 1) != 0 || !seq.compareAndSet(s, s + 1)) {
+      Thread.yield();
+    }
+  }
+
+  private void endUpdate() {
+    seq.incrementAndGet();
   }
 
   void setAskPrice(float ask) {
+    beginUpdate();
     this.askPrice = ask;
+    endUpdate();
   }
 
   public float getAskPrice() {
@@ -70,7 +197,9 @@ public class Quote {
   }
 
   void setBidPrice(float bid) {
+    beginUpdate();
     this.bidPrice = bid;
+    endUpdate();
   }
 
   public float getBidPrice() {
@@ -82,7 +211,9 @@ public class Quote {
   }
 
   void setHQW(int hqw) {
+    beginUpdate();
     this.hqw = hqw;
+    endUpdate();
   }
 
   public int getHQW() {
@@ -90,11 +221,24 @@ public class Quote {
   }
 
   public boolean hasHQW(Bid bid) {
-    return (this.bid != null && bid == this.bid && hqw >= 0);
+    // The HQW must be read together with the bid it was given for
+    int before;
+    Bid quoteBid;
+    int quoteHQW;
+    do {
+      while (((before = seq.get()) & 1) != 0) {
+	Thread.yield();
+      }
+      quoteBid = this.bid;
+      quoteHQW = this.hqw;
+    } while (seq.get() != before);
+    return quoteBid != null && bid == quoteBid && quoteHQW >= 0;
   }
 
   void setAuctionStatus(int status) {
+    beginUpdate();
     this.status = status;
+    endUpdate();
   }
 
   public boolean isAuctionClosed() {
@@ -109,12 +253,18 @@ public class Quote {
     return statusName[status];
   }
 
+  static String getAuctionStatusAsString(int status) {
+    return statusName[status];
+  }
+
   public long getNextQuoteTime() {
     return nextQuoteTime;
   }
 
   public void setNextQuoteTime(long nextQuoteTime) {
+    beginUpdate();
     this.nextQuoteTime = nextQuoteTime;
+    endUpdate();
   }
 
   public long getLastQuoteTime() {
@@ -122,11 +272,15 @@ public class Quote {
   }
 
   public void setLastQuoteTime(long lastQuoteTime) {
+    beginUpdate();
     this.lastQuoteTime = lastQuoteTime;
+    endUpdate();
   }
 
   void setBid(Bid bid) {
+    beginUpdate();
     this.bid = bid;
+    endUpdate();
   }
 
   public Bid getBid() {
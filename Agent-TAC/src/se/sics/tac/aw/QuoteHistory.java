@@ -0,0 +1,238 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * QuoteHistory
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   The received quotes for one auction as a time series. The samples
+ *   are stored in primitive arrays used as a ring, large enough to hold
+ *   all quotes of a game (the oldest samples are overwritten if more
+ *   quotes are received). Adding a sample never allocates.
+ *
+ *   Samples are indexed from 0 (the oldest kept sample) to size() - 1
+ *   (the latest). The windowed statistics are computed over the last n
+ *   samples.
+ */
+
+package se.sics.tac.aw;
+
+public class QuoteHistory {
+
+  /** The number of samples kept */
+  public final static int CAPACITY = 1024;
+
+  /** The weight of a new sample in the moving averages */
+  public final static float EWMA_ALPHA = 0.25f;
+
+  private final static int MASK = CAPACITY - 1;
+
+  private final int auction;
+  private final long[] times = new long[CAPACITY];
+  private final float[] askPrices = new float[CAPACITY];
+  private final float[] bidPrices = new float[CAPACITY];
+  private final int[] hqws = new int[CAPACITY];
+  private final int[] status = new int[CAPACITY];
+
+  // Total number of added samples since the history was cleared
+  private long total;
+  private float askEWMA;
+  private float bidEWMA;
+
+  public QuoteHistory(int auction) {
+    this.auction = auction;
+  }
+
+  public int getAuction() {
+    return auction;
+  }
+
+  synchronized void add(long serverTime, float askPrice, float bidPrice,
+			int hqw, int auctionStatus) {
+    int index = (int) total & MASK;
+    times[index] = serverTime;
+    askPrices[index] = askPrice;
+    bidPrices[index] = bidPrice;
+    hqws[index] = hqw;
+    status[index] = auctionStatus;
+    if (total == 0) {
+      askEWMA = askPrice;
+      bidEWMA = bidPrice;
+    } else {
+      askEWMA += EWMA_ALPHA * (askPrice - askEWMA);
+      bidEWMA += EWMA_ALPHA * (bidPrice - bidEWMA);
+    }
+    total++;
+  }
+
+  synchronized void clear() {
+    total = 0;
+    askEWMA = 0f;
+    bidEWMA = 0f;
+  }
+
+  /**
+   * Returns the number of samples in this history.
+   */
+  public synchronized int size() {
+    return total < CAPACITY ? (int) total : CAPACITY;
+  }
+
+  /**
+   * Returns the number of samples added since the start of the game,
+   * including samples no longer kept.
+   */
+  public synchronized long getTotalCount() {
+    return total;
+  }
+
+  // Returns the array index of the sample
+  private int getIndex(int sample) {
+    int size = total < CAPACITY ? (int) total : CAPACITY;
+    if (sample < 0 || sample >= size) {
+      throw new IndexOutOfBoundsException("sample " + sample
+					  + " of " + size);
+    }
+    return (int) (total - size + sample) & MASK;
+  }
+
+  public synchronized long getTime(int sample) {
+    return times[getIndex(sample)];
+  }
+
+  public synchronized float getAskPrice(int sample) {
+    return askPrices[getIndex(sample)];
+  }
+
+  public synchronized float getBidPrice(int sample) {
+    return bidPrices[getIndex(sample)];
+  }
+
+  public synchronized int getHQW(int sample) {
+    return hqws[getIndex(sample)];
+  }
+
+  public synchronized int getAuctionStatus(int sample) {
+    return status[getIndex(sample)];
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  /**
+   * Returns the exponentially weighted moving average of the ask
+   * price.
+   */
+  public synchronized float getAskEWMA() {
+    return askEWMA;
+  }
+
+  public synchronized float getBidEWMA() {
+    return bidEWMA;
+  }
+
+  public float getMinAskPrice(int n) {
+    return getMin(askPrices, n);
+  }
+
+  public float getMaxAskPrice(int n) {
+    return getMax(askPrices, n);
+  }
+
+  public float getMinBidPrice(int n) {
+    return getMin(bidPrices, n);
+  }
+
+  public float getMaxBidPrice(int n) {
+    return getMax(bidPrices, n);
+  }
+
+  /**
+   * Returns the least squares slope of the ask price over the last n
+   * samples in price units per second, or 0 if there are fewer than
+   * two samples.
+   */
+  public float getAskSlope(int n) {
+    return getSlope(askPrices, n);
+  }
+
+  public float getBidSlope(int n) {
+    return getSlope(bidPrices, n);
+  }
+
+  private synchronized float getMin(float[] values, int n) {
+    int size = getWindow(n);
+    if (size == 0) {
+      return 0f;
+    }
+    float min = Float.MAX_VALUE;
+    for (long i = total - size; i < total; i++) {
+      float v = values[(int) i & MASK];
+      if (v < min) {
+	min = v;
+      }
+    }
+    return min;
+  }
+
+  private synchronized float getMax(float[] values, int n) {
+    int size = getWindow(n);
+    if (size == 0) {
+      return 0f;
+    }
+    float max = -Float.MAX_VALUE;
+    for (long i = total - size; i < total; i++) {
+      float v = values[(int) i & MASK];
+      if (v > max) {
+	max = v;
+      }
+    }
+    return max;
+  }
+
+  private synchronized float getSlope(float[] values, int n) {
+    int size = getWindow(n);
+    if (size < 2) {
+      return 0f;
+    }
+    // Times relative to the first sample to keep the sums small
+    long start = total - size;
+    long t0 = times[(int) start & MASK];
+    double sumT = 0.0, sumV = 0.0, sumTT = 0.0, sumTV = 0.0;
+    for (long i = start; i < total; i++) {
+      int index = (int) i & MASK;
+      double t = (times[index] - t0) / 1000.0;
+      double v = values[index];
+      sumT += t;
+      sumV += v;
+      sumTT += t * t;
+      sumTV += t * v;
+    }
+    double d = size * sumTT - sumT * sumT;
+    return d == 0.0 ? 0f : (float) ((size * sumTV - sumT * sumV) / d);
+  }
+
+  private int getWindow(int n) {
+    int size = total < CAPACITY ? (int) total : CAPACITY;
+    return n < size ? (n < 0 ? 0 : n) : size;
+  }
+
+} // QuoteHistory
@@ -0,0 +1,122 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * QuoteScheduler
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Plans when to request quotes so that the requests arrive at the
+ *   server just after the quotes have been cleared. The request time
+ *   is the clear time reported by the server (or expected from the
+ *   clearing period) minus half the smoothed round trip time, plus a
+ *   small guard and a learned correction for the error in the
+ *   estimated server clock (which is only known to the second).
+ *
+ *   The correction grows each time a quote is requested too early,
+ *   i.e. the reply still reports the passed clear time, and slowly
+ *   shrinks again while the requests are in time.
+ */
+
+package se.sics.tac.aw;
+
+class QuoteScheduler {
+
+  // Time in ms after the clearing the requests should arrive
+  private final static long GUARD = 50L;
+  private final static long MAX_CORRECTION = 2000L;
+  private final static long CORRECTION_STEP = 100L;
+  private final static long CORRECTION_DECAY = 10L;
+  private final static long MIN_RETRY_DELAY = 200L;
+
+  // Smoothed round trip time for quote requests in ms
+  private long rtt = 200L;
+  private long correction = 0L;
+
+  private long earlyCount;
+  private long inTimeCount;
+
+  public QuoteScheduler() {
+  }
+
+  /**
+   * Returns the server time to send a quote request to receive the
+   * quote cleared at the specified server time.
+   */
+  public synchronized long getRequestTime(long clearTime) {
+    return clearTime - rtt / 2 + correction + GUARD;
+  }
+
+  /**
+   * Returns the next clear time for a quote. This is the clear time
+   * reported by the server when it is in the future and otherwise the
+   * next clear time for the specified period since the game start.
+   */
+  public static long getNextClearTime(long reportedTime, long startTime,
+				      long period, long serverTime) {
+    if (reportedTime > serverTime) {
+      return reportedTime;
+    }
+    if (serverTime < startTime) {
+      return startTime + period;
+    }
+    return startTime + period * ((serverTime - startTime) / period + 1);
+  }
+
+  public synchronized void responseReceived(long responseTime) {
+    if (responseTime >= 0) {
+      rtt += (responseTime - rtt) / 8;
+    }
+  }
+
+  /**
+   * Called when a quote was received with a new clear time.
+   */
+  public synchronized void quoteInTime() {
+    inTimeCount++;
+    correction -= CORRECTION_DECAY;
+    if (correction < 0) {
+      correction = 0;
+    }
+  }
+
+  /**
+   * Called when a quote was requested before it had been cleared.
+   *
+   * @return the delay before the quote should be requested again
+   */
+  public synchronized long quoteTooEarly() {
+    earlyCount++;
+    correction += CORRECTION_STEP;
+    if (correction > MAX_CORRECTION) {
+      correction = MAX_CORRECTION;
+    }
+    return rtt > MIN_RETRY_DELAY ? rtt : MIN_RETRY_DELAY;
+  }
+
+  public synchronized void resetStatistics() {
+    earlyCount = 0L;
+    inTimeCount = 0L;
+  }
+
+  public synchronized String getStatistics() {
+    return "rtt=" + rtt + " correction=" + correction
+      + " in time=" + inTimeCount + " too early=" + earlyCount;
+  }
+
+} // QuoteScheduler
@@ -0,0 +1,97 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * QuoteView
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A consistent copy of the fields of a quote filled in by
+ *   Quote.read(QuoteView). A view can be reused for any number of
+ *   reads and is not thread safe itself.
+ */
+
+package se.sics.tac.aw;
+
+public class QuoteView {
+
+  int auction = -1;
+  int version;
+  float askPrice;
+  float bidPrice;
+  int hqw = -1;
+  int status = Quote.AUCTION_INITIALIZING;
+  long nextQuoteTime = -1L;
+  long lastQuoteTime = 0L;
+  Bid bid;
+
+  public QuoteView() {
+  }
+
+  public int getAuction() {
+    return auction;
+  }
+
+  /**
+   * Returns the number of updates of the quote when it was read.
+   */
+  public int getVersion() {
+    return version;
+  }
+
+  public float getAskPrice() {
+    return askPrice;
+  }
+
+  public float getBidPrice() {
+    return bidPrice;
+  }
+
+  public int getHQW() {
+    return hqw;
+  }
+
+  public boolean hasHQW(Bid bid) {
+    return (this.bid != null && bid == this.bid && hqw >= 0);
+  }
+
+  public boolean isAuctionClosed() {
+    return status == Quote.AUCTION_CLOSED;
+  }
+
+  public int getAuctionStatus() {
+    return status;
+  }
+
+  public String getAuctionStatusAsString() {
+    return Quote.getAuctionStatusAsString(status);
+  }
+
+  public long getNextQuoteTime() {
+    return nextQuoteTime;
+  }
+
+  public long getLastQuoteTime() {
+    return lastQuoteTime;
+  }
+
+  public Bid getBid() {
+    return bid;
+  }
+
+} // QuoteView
@@ -0,0 +1,303 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * RequestScheduler
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Limits the rate of requests to the server and decides in which
+ *   order waiting requests are sent. Requests are divided into
+ *   priority classes: control messages, bid submissions, transaction
+ *   requests, bid information requests and quote requests. A token
+ *   bucket gives the requests per second budget. When there is budget
+ *   left and nothing waiting a request is sent directly, otherwise it
+ *   waits in the queue of its class. The scheduler thread sends the
+ *   waiting requests as budget becomes available, highest priority
+ *   first, except that a request that has waited longer than the
+ *   starvation limit is sent before any other.
+ *
+ *   The time each request waited is recorded per class.
+ */
+
+package se.sics.tac.aw;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+class RequestScheduler implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(RequestScheduler.class.getName());
+
+  /** Priority classes (lower is more urgent) */
+  public final static int CONTROL = 0;
+  public final static int BID = 1;
+  public final static int TRANSACTION = 2;
+  public final static int BID_INFO = 3;
+  public final static int QUOTE = 4;
+
+  private final static String[] classNames = {
+    "control", "bid", "transaction", "bidInfo", "quote"
+  };
+
+  private final TACAgent agent;
+  private final double rate;
+  private final double burst;
+  private final long maxWait;
+
+  private final ArrayQueue[] queues = new ArrayQueue[classNames.length];
+  private final LatencyHistogram[] queueDelays =
+    new LatencyHistogram[classNames.length];
+  private int queued;
+  // True while the scheduler thread sends requests taken from the
+  // queues (no request may be sent directly meanwhile)
+  private boolean isSending;
+
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * Creates a new request scheduler.
+   *
+   * @param agent the agent to reset if a request could not be sent
+   * @param rate the number of requests per second
+   * @param burst the number of requests that can be sent at once
+   * @param maxWait the time in milliseconds after which a request is
+   *	sent before requests with higher priority
+   */
+  public RequestScheduler(TACAgent agent, double rate, int burst,
+			  long maxWait) {
+    this.agent = agent;
+    this.rate = rate;
+    this.burst = burst < 1 ? 1 : burst;
+    this.maxWait = maxWait;
+    this.tokens = this.burst;
+    this.lastRefill = System.nanoTime();
+    for (int i = 0, n = queues.length; i < n; i++) {
+      queues[i] = new ArrayQueue();
+      queueDelays[i] = new LatencyHistogram();
+    }
+
+    Thread thread = new Thread(this, "requests");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public static int getPriority(TACMessage msg) {
+    switch (TACTag.lookup(msg.getType())) {
+    case TACTag.SUBMIT_BID:
+    case TACTag.REPLACE_BID:
+      return BID;
+    case TACTag.TRANS_IDS:
+    case TACTag.TRANS_INFO:
+      return TRANSACTION;
+    case TACTag.BID_INFO:
+      return BID_INFO;
+    case TACTag.GET_QUOTE:
+      return QUOTE;
+    default:
+      return CONTROL;
+    }
+  }
+
+  /**
+   * Sends the message now if the budget allows it and no other
+   * request is waiting, otherwise queues it to be sent later.
+   */
+  public void sendMessage(TACConnection connection, TACMessage msg)
+    throws IOException {
+    int priority = getPriority(msg);
+    synchronized (this) {
+      refill();
+      if (queued > 0 || isSending || tokens < 1.0) {
+	queues[priority].add(new Request(connection, msg));
+	queued++;
+	notify();
+	return;
+      }
+      tokens -= 1.0;
+    }
+    queueDelays[priority].record(0L);
+    connection.sendMessage(msg);
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens += (now - lastRefill) * rate / 1000000000.0;
+    if (tokens > burst) {
+      tokens = burst;
+    }
+    lastRefill = now;
+  }
+
+  // Called with the lock held
+  private Request poll(long currentTime) {
+    int index = -1;
+    // Any request waiting too long is sent first
+    long oldest = currentTime - maxWait;
+    for (int i = 0, n = queues.length; i < n; i++) {
+      ArrayQueue queue = queues[i];
+      if (!queue.isEmpty()) {
+	if (index < 0) {
+	  index = i;
+	}
+	long time = ((Request) queue.get(0)).time;
+	if (time < oldest) {
+	  oldest = time;
+	  index = i;
+	}
+      }
+    }
+    if (index < 0) {
+      return null;
+    }
+    Request request = (Request) queues[index].remove(0);
+    request.priority = index;
+    queued--;
+    return request;
+  }
+
+  public void run() {
+    ArrayQueue sending = new ArrayQueue();
+    while (true) {
+      synchronized (this) {
+	isSending = false;
+	try {
+	  while (true) {
+	    refill();
+	    if (queued > 0 && tokens >= 1.0) {
+	      break;
+	    } else if (queued > 0) {
+	      long delay = (long) Math.ceil((1.0 - tokens) * 1000 / rate);
+	      wait(delay > 0 ? delay : 1);
+	    } else {
+	      wait();
+	    }
+	  }
+	} catch (InterruptedException e) {
+	  log.log(Level.WARNING, "request scheduler interrupted", e);
+	  continue;
+	}
+
+	long currentTime = System.currentTimeMillis();
+	Request request;
+	while (tokens >= 1.0 && (request = poll(currentTime)) != null) {
+	  tokens -= 1.0;
+	  sending.add(request);
+	}
+	isSending = true;
+      }
+
+      send(sending);
+    }
+  }
+
+  private void send(ArrayQueue sending) {
+    TACConnection connection = null;
+    while (!sending.isEmpty()) {
+      Request request = (Request) sending.remove(0);
+      long delay = System.currentTimeMillis() - request.time;
+      queueDelays[request.priority].record(delay);
+      if (request.connection != connection) {
+	if (connection != null) {
+	  endBatch(connection);
+	}
+	connection = request.connection;
+	connection.beginBatch();
+      }
+      try {
+	connection.sendMessage(request.message);
+      } catch (IOException e) {
+	log.log(Level.WARNING, "could not send message "
+		+ request.message.getType(), e);
+	agent.reset(0, connection);
+      }
+    }
+    if (connection != null) {
+      endBatch(connection);
+    }
+  }
+
+  private void endBatch(TACConnection connection) {
+    try {
+      connection.endBatch();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "could not send messages", e);
+      agent.reset(0, connection);
+    }
+  }
+
+  /**
+   * Removes all waiting requests, for example when the connection
+   * has been reset.
+   */
+  public synchronized void clear() {
+    for (int i = 0, n = queues.length; i < n; i++) {
+      queues[i].clear();
+    }
+    queued = 0;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  public synchronized int getQueueSize() {
+    return queued;
+  }
+
+  public String getStatistics() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(rate).append(" requests/sec, queue ").append(getQueueSize());
+    for (int i = 0, n = queueDelays.length; i < n; i++) {
+      sb.append("\n  ").append(classNames[i]).append(" delay (ms) ")
+	.append(queueDelays[i]);
+    }
+    return sb.toString();
+  }
+
+  public void resetStatistics() {
+    for (int i = 0, n = queueDelays.length; i < n; i++) {
+      queueDelays[i].reset();
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Request
+  // -------------------------------------------------------------------
+
+  private static class Request {
+
+    public final TACConnection connection;
+    public final TACMessage message;
+    public final long time = System.currentTimeMillis();
+    public int priority;
+
+    Request(TACConnection connection, TACMessage message) {
+      this.connection = connection;
+      this.message = message;
+    }
+
+  } // Request
+
+} // RequestScheduler
@@ -33,6 +33,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -140,19 +144,15 @@ public class TACAgent implements Task, TACMessageReceiver {
   public final static int MAX_HOTEL = 15;
   public final static int MAX_ENTERTAINMENT = 27;
 
-  /** Internal operations to perform after transactions have been received */
-  private final static int OP_NOOP = 0x000;
-  private final static int OP_GAME_STARTS = 0x001;
-  private final static int OP_GAME_ENDS = 0x002;
-  private final static int OP_CLOSE_AUCTION = 0x100;
-  private final static int OP_CLEAR_BID = 0x100000;
-
   /** The number of auctions in a TAC game */
-  private final static int NO_AUCTIONS = 28;
+  final static int NO_AUCTIONS = 28;
 
   /** Timeout for quotes (when waiting for reply) */
   private final static int QUOTE_TIMEOUT = 120 * 1000;
 
+  /** Timeout for transactions (when waiting for reply) */
+  private final static int TRANSACTION_TIMEOUT = 30 * 1000;
+
   /** Constants for automatic updates and game */
   private final static int INFO_UPDATE_PERIOD = 30000;
 
@@ -184,6 +184,7 @@ public class TACAgent implements Task, TACMessageReceiver {
   private Properties config;
 
   private TACConnection connection = null;
+  private AgentDispatcher dispatcher;
 
   private int nextGameID = -1;
   private long nextGameTime = -1;
@@ -203,11 +204,60 @@ public class TACAgent implements Task, TACMessageReceiver {
   // Auction and ownership information
   private int[] auctionIDs = new int[NO_AUCTIONS];
   private int[] owns = new int[NO_AUCTIONS];
-  private Bid[] bids = new Bid[NO_AUCTIONS];
+  // The active bids are read without locking but only changed while
+  // holding the lock for the auction
+  private final AtomicReferenceArray<Bid> bids =
+    new AtomicReferenceArray<Bid>(NO_AUCTIONS);
+  private final ReentrantLock[] bidLocks = new ReentrantLock[NO_AUCTIONS];
   private Quote[] quotes = new Quote[NO_AUCTIONS];
+  private QuoteHistory[] quoteHistory = new QuoteHistory[NO_AUCTIONS];
+  private final PositionLedger ledger = new PositionLedger(NO_AUCTIONS);
   private float[] costs = new float[NO_AUCTIONS];
 
+  // The latest published view of the market state
+  private volatile MarketSnapshot snapshot =
+    new MarketSnapshot(0L, -1, 0L, NO_AUCTIONS);
+  // Protects the ownership, cost and allocation of the auctions so
+  // that a snapshot never holds a partially applied change
+  private final Object snapshotLock = new Object();
+  private final QuoteView snapshotView = new QuoteView();
+  // The view of the previous quote used by each thread handling quotes
+  private final ThreadLocal<QuoteView> quoteViews =
+    new ThreadLocal<QuoteView>() {
+      protected QuoteView initialValue() {
+	return new QuoteView();
+      }
+    };
+  // Number of started allocation batches and whether there are changes
+  // not yet published (guarded by snapshotLock)
+  private int snapshotBatch = 0;
+  private boolean snapshotChanged = false;
+
   private long[] pendingQuotes = new long[NO_AUCTIONS];
+  // Scheduled re-requests of hotel quotes
+  private TaskHandle[] quoteTasks = new TaskHandle[NO_AUCTIONS];
+
+  // Only call quoteUpdated when a quote has changed
+  private boolean quoteChangesOnly = false;
+
+  // Journal of bids and transactions for restoring the state of the
+  // current game if the agent is restarted
+  private boolean useJournal = true;
+  private GameJournal journal;
+  // Auctions with changed quotes since the last category callback
+  private final AtomicLong changedQuotes = new AtomicLong();
+
+  // Limits the request rate (null when the rate is not limited)
+  private RequestScheduler requestScheduler;
+
+  // Adaptive quote polling (null when quotes are polled periodically)
+  private QuoteScheduler quoteScheduler;
+  // The scheduled quote sweep and its clear time per auction category
+  private final TaskHandle[] sweepTasks = new TaskHandle[3];
+  private final long[] sweepClearTimes = new long[3];
+
+  // All timers for the current game and connection
+  private TaskGroup timers = new TaskGroup("timers");
 
   private int[] allocate = new int[NO_AUCTIONS];
 
@@ -218,11 +268,14 @@ public class TACAgent implements Task, TACMessageReceiver {
   private int earliestTransID = -1;
   private boolean isGameStarted = false;
 
-  private int[] transActions = new int[10];
-  private int transActionsNum = 0;
-  private int[] waitActions = new int[10];
-  private int waitActionsNum = 0;
-  private long lastSentTransactionRequest = 0L;
+  // Protects the transaction reconciler
+  private final ReentrantLock transLock = new ReentrantLock();
+  // Number of times a bid lock or (last) the transaction lock was busy
+  private final AtomicLongArray lockContention =
+    new AtomicLongArray(NO_AUCTIONS + 1);
+
+  private TransactionReconciler reconciler =
+    new TransactionReconciler(TRANSACTION_TIMEOUT);
 
   private int printOwnDelay = 0;
 
@@ -230,6 +283,9 @@ public class TACAgent implements Task, TACMessageReceiver {
   private AgentDisplay display;
 
   private String connectionClassName;
+  private boolean tcpNoDelay = true;
+  private int flushDelay = 5;
+  private int httpConnections = 1;
 
   private int exitAfterGames = -1;
   private int gamesPlayed = 0;
@@ -237,8 +293,11 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private TACAgent(AgentImpl agent) {
     this.agent = agent;
+    this.dispatcher = new AgentDispatcher(agent);
     for (int i = 0; i < NO_AUCTIONS; i++) {
       quotes[i] = new Quote(i);
+      quoteHistory[i] = new QuoteHistory(i);
+      bidLocks[i] = new ReentrantLock();
     }
   }
 
@@ -294,6 +353,80 @@ public class TACAgent implements Task, TACMessageReceiver {
       trim(a.getArgument("-connection",
 			 config.getProperty("connection",
 					    "se.sics.tac.aw.TACReader")));
+    tcpNoDelay = !"false".equals(trim(a.getArgument("-tcpNoDelay",
+				    config.getProperty("tcpNoDelay",
+						       "true"))));
+    flushDelay = a.getArgument("-flushDelay",
+			       getInt(config, "flushDelay", flushDelay));
+    httpConnections =
+      a.getArgument("-httpConnections",
+		    getInt(config, "httpConnections", httpConnections));
+    TimeDispatcher timer = TimeDispatcher.getDefault();
+    timer.setWorkerThreads(a.getArgument("-timerThreads",
+					 getInt(config, "timerThreads", 0)));
+    String timerQueue =
+      trim(a.getArgument("-timerQueue",
+			 config.getProperty("timerQueue", "heap")));
+    if (!timer.setTaskQueue(timerQueue)) {
+      System.err.println("Unknown timer queue '" + timerQueue + '\'');
+      a.usage(1);
+    }
+
+    int requestRate =
+      a.getArgument("-requestRate", getInt(config, "requestRate", 0));
+    if (requestRate > 0) {
+      int requestBurst =
+	a.getArgument("-requestBurst",
+		      getInt(config, "requestBurst", requestRate));
+      int requestMaxWait =
+	a.getArgument("-requestMaxWait",
+		      getInt(config, "requestMaxWait", 2000));
+      requestScheduler = new RequestScheduler(this, requestRate,
+					      requestBurst, requestMaxWait);
+    }
+
+    reconciler = new TransactionReconciler
+      (a.getArgument("-transactionTimeout",
+		     getInt(config, "transactionTimeout",
+			    TRANSACTION_TIMEOUT)));
+
+    useJournal =
+      !"false".equals(trim(a.getArgument("-journal",
+		      config.getProperty("journal", "true"))));
+
+    quoteChangesOnly =
+      "true".equals(trim(a.getArgument("-quoteChangesOnly",
+		    config.getProperty("quoteChangesOnly", "false"))));
+
+    String quotePolling =
+      trim(a.getArgument("-quotePolling",
+			 config.getProperty("quotePolling", "fixed")));
+    if ("adaptive".equals(quotePolling)) {
+      quoteScheduler = new QuoteScheduler();
+    } else if (!"fixed".equals(quotePolling)) {
+      System.err.println("Unknown quote polling '" + quotePolling + '\'');
+      a.usage(1);
+    }
+
+    String callbackMode =
+      trim(a.getArgument("-callbackMode",
+			 config.getProperty("callbackMode", "inline")));
+    int mode = AgentDispatcher.getMode(callbackMode);
+    if (mode < 0) {
+      System.err.println("Unknown callback mode '" + callbackMode + '\'');
+      a.usage(1);
+    } else if (mode != AgentDispatcher.INLINE) {
+      int callbackThreads =
+	a.getArgument("-callbackThreads",
+		      getInt(config, "callbackThreads", 4));
+      int ringSize =
+	a.getArgument("-ringSize", getInt(config, "ringSize", 1024));
+      boolean coalesceQuotes =
+	!"false".equals(trim(a.getArgument("-coalesceQuotes",
+			     config.getProperty("coalesceQuotes", "true"))));
+      dispatcher = new AgentDispatcher(agent, mode, callbackThreads,
+				       ringSize, coalesceQuotes);
+    }
 
     gameType =
       trim(a.getArgument("-gameType", config.getProperty("gameType", null)));
@@ -330,6 +463,7 @@ public class TACAgent implements Task, TACMessageReceiver {
     log.fine("Starting TAC AgentWare version " + VERSION);
     log.fine("Using agent implementation " + agent.getClass().getName());
     log.fine("Using TAC server " + host + " at port " + port);
+    log.fine("Using " + dispatcher.getModeAsString() + " agent callbacks");
 
     agent.init(this, a);
 
@@ -413,14 +547,49 @@ public class TACAgent implements Task, TACMessageReceiver {
   // -------------------------------------------------------------------
 
   private void cancelTimers() {
-    TimeDispatcher d = TimeDispatcher.getDefault();
-    d.cancelTask("gameStarts", this);
-    d.cancelTask("gameEnds", this);
-    d.cancelTask("hotelQuotes", this);
-    d.cancelTask("flightQuotes", this);
-    d.cancelTask("quotes", this);
-    d.cancelTask("bids", this);
-    d.cancelTask("printOwn", this);
+    // Cancels all scheduled tasks at once
+    TaskGroup timers = this.timers;
+    this.timers = new TaskGroup("timers");
+    timers.cancel();
+    for (int i = 0; i < NO_AUCTIONS; i++) {
+      quoteTasks[i] = null;
+    }
+    synchronized (sweepTasks) {
+      for (int i = 0, n = sweepTasks.length; i < n; i++) {
+	sweepTasks[i] = null;
+	sweepClearTimes[i] = 0L;
+      }
+    }
+  }
+
+  // Schedules a request of all quotes in the category (flights or
+  // hotels) for the specified clear time unless already scheduled
+  private void scheduleQuotes(int category, long clearTime) {
+    synchronized (sweepTasks) {
+      TaskHandle task = sweepTasks[category];
+      if (task != null && !task.isCancelled()
+	  && sweepClearTimes[category] == clearTime) {
+	return;
+      }
+      if (task != null) {
+	task.cancel();
+      }
+      sweepClearTimes[category] = clearTime;
+      sweepTasks[category] = TimeDispatcher.getDefault()
+	.addTask(quoteScheduler.getRequestTime(clearTime),
+		 category == CAT_HOTEL ? "hotelQuotes" : "flightQuotes",
+		 connection, this, timers);
+    }
+  }
+
+  private long getSweepClearTime(int category, long period) {
+    long clearTime;
+    synchronized (sweepTasks) {
+      clearTime = sweepClearTimes[category];
+    }
+    // Fallback if no quote reports the next clear time
+    scheduleQuotes(category, clearTime + period);
+    return clearTime;
   }
 
   public void performWork(long time, Object key, Object value) {
@@ -428,45 +597,69 @@ public class TACAgent implements Task, TACMessageReceiver {
     if (key == "hotelQuotes") {
       // Request all hotel quotes
       if (value == connection) {
-	td.addTask(time + 60000, key, value, this);
+	// Only quotes not already received for this clearing are
+	// requested when the polling is adaptive
+	long clearTime = Long.MAX_VALUE;
+	if (quoteScheduler != null) {
+	  clearTime = getSweepClearTime(CAT_HOTEL, 60000);
+	} else {
+	  td.addTask(time + 60000, key, value, this, timers);
+	}
 	TACConnection conn = (TACConnection) value;
-	for (int i = MIN_HOTEL; i <= MAX_HOTEL; i++) {
-	  if (!quotes[i].isAuctionClosed()) {
-	    lastHotelAuction = i;
-	    requestQuote(quotes[i], conn, false);
+	conn.beginBatch();
+	try {
+	  for (int i = MIN_HOTEL; i <= MAX_HOTEL; i++) {
+	    if (!quotes[i].isAuctionClosed()
+		&& quotes[i].getNextQuoteTime() <= clearTime) {
+	      lastHotelAuction = i;
+	      requestQuote(quotes[i], conn, false);
+	    }
 	  }
+	} finally {
+	  endBatch(conn);
 	}
       }
 
     } else if (key == "flightQuotes") {
       // Request all flight quotes
       if (value == connection) {
-	td.addTask(time + 10000, key, value, this);
+	long clearTime = Long.MAX_VALUE;
+	if (quoteScheduler != null) {
+	  clearTime = getSweepClearTime(CAT_FLIGHT, 10000);
+	} else {
+	  td.addTask(time + 10000, key, value, this, timers);
+	}
 	TACConnection conn = (TACConnection) value;
 
-	for (int i = MIN_FLIGHT; i <= MAX_FLIGHT; i++) {
-	  if (!quotes[i].isAuctionClosed()) {
-	    requestQuote(quotes[i], conn, false);
+	conn.beginBatch();
+	try {
+	  for (int i = MIN_FLIGHT; i <= MAX_FLIGHT; i++) {
+	    if (!quotes[i].isAuctionClosed()
+		&& quotes[i].getNextQuoteTime() <= clearTime) {
+	      requestQuote(quotes[i], conn, false);
+	    }
 	  }
+	} finally {
+	  endBatch(conn);
 	}
       }
 
     } else if (key == "quotes") {
       if (value == connection) {
 	// Request the entertainment quotes only
-	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this);
+	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this, timers);
 	requestQuotes((TACConnection) value, false, false);
       }
 
     } else if (key == "bids") {
       if (value == connection) {
-	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this);
+	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this, timers);
 	requestBidInfos((TACConnection) value);
       }
 
     } else if (key == "printOwn") {
       if (value == connection && (printOwnDelay > 0)) {
-	td.addTask(time + printOwnDelay, key, value, this);
+	td.addTask(time + printOwnDelay, key, value, this, timers);
 	printOwn();
       }
 
@@ -503,6 +696,47 @@ public class TACAgent implements Task, TACMessageReceiver {
     return password;
   }
 
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /**
+   * Returns the maximal time in milliseconds a message may be held
+   * back by a connection while waiting for more messages in the same
+   * burst.
+   */
+  public int getFlushDelay() {
+    return flushDelay;
+  }
+
+  /**
+   * Returns the number of requests an HTTP connection may have in
+   * flight at the same time.
+   */
+  public int getHttpConnections() {
+    return httpConnections;
+  }
+
+  /**
+   * Returns the number of times the bid state of the specified auction
+   * was locked by another thread when it was to be changed.
+   */
+  public long getLockContention(int auction) {
+    return lockContention.get(auction);
+  }
+
+  /**
+   * Returns the number of times the bid state of any auction or the
+   * transaction queue was locked by another thread.
+   */
+  public long getLockContention() {
+    long total = 0L;
+    for (int i = 0, n = lockContention.length(); i < n; i++) {
+      total += lockContention.get(i);
+    }
+    return total;
+  }
+
 
 
   // -------------------------------------------------------------------
@@ -584,6 +818,15 @@ public class TACAgent implements Task, TACMessageReceiver {
     return NO_AUCTIONS;
   }
 
+  // Returns the auctions in the category as a bit mask
+  private static long getCategoryMask(int category) {
+    int min = category == CAT_FLIGHT ? MIN_FLIGHT
+      : (category == CAT_HOTEL ? MIN_HOTEL : MIN_ENTERTAINMENT);
+    int max = category == CAT_FLIGHT ? MAX_FLIGHT
+      : (category == CAT_HOTEL ? MAX_HOTEL : MAX_ENTERTAINMENT);
+    return ((1L << (max + 1)) - 1) & ~((1L << min) - 1);
+  }
+
   public static int getAuctionCategory(int auction) {
     if (auction < 8) {
       return CAT_FLIGHT;
@@ -667,29 +910,182 @@ public class TACAgent implements Task, TACMessageReceiver {
     return bid.getQuantity();
   }
 
-  public synchronized Bid getBid(int auctionID) {
-    return bids[auctionID];
+  public Bid getBid(int auctionID) {
+    return bids.get(auctionID);
   }
 
   public Quote getQuote(int auctionID) {
     return quotes[auctionID];
   }
 
+  /**
+   * Returns the ledger with the goods owned, bought and sold and their
+   * cost per auction and per category for the current game.
+   */
+  public PositionLedger getPositionLedger() {
+    return ledger;
+  }
+
+  /**
+   * Returns all quotes received for the auction during the current
+   * game.
+   */
+  public QuoteHistory getQuoteHistory(int auction) {
+    return quoteHistory[auction];
+  }
+
+  /**
+   * Returns the latest market snapshot. The snapshot is immutable and
+   * gives a consistent view of quotes, ownership and allocation for
+   * all auctions. A new snapshot is published after each transaction
+   * and bid change, when all quotes in a category have been updated,
+   * and after each allocation batch.
+   */
+  public MarketSnapshot getMarketSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Adds a handler that is called in its own thread with all events
+   * also delivered to the agent. Requires the callback mode "ring".
+   *
+   * @param handler the handler to call
+   * @param name the name of the handler
+   * @throws IllegalStateException if the callback mode is not "ring"
+   */
+  public void addEventHandler(MarketEventHandler handler, String name) {
+    dispatcher.addEventHandler(handler, name);
+  }
+
+  /**
+   * Returns a publisher of quote updates as QuoteView items. A
+   * subscriber that is slower than the quote updates only receives the
+   * latest quote for each auction.
+   */
+  public MarketFlow.Publisher getQuotePublisher() {
+    return dispatcher.getQuoteStream();
+  }
+
+  /**
+   * Returns a publisher of updated, rejected and failed bids as Bid
+   * items. A subscriber that falls too far behind is cancelled.
+   */
+  public MarketFlow.Publisher getBidPublisher() {
+    return dispatcher.getBidStream();
+  }
+
+  /**
+   * Returns a publisher of transactions as Transaction items. A
+   * subscriber that falls too far behind is cancelled.
+   */
+  public MarketFlow.Publisher getTransactionPublisher() {
+    return dispatcher.getTransactionStream();
+  }
+
   public int getAllocation(int auction) {
     return allocate[auction];
   }
 
+  /**
+   * Starts a batch of allocation changes. The market snapshot is
+   * published once when the matching endAllocation() is called instead
+   * of after each change. Changes made by other threads during the
+   * batch are published at the same time.
+   */
+  public void beginAllocation() {
+    synchronized (snapshotLock) {
+      snapshotBatch++;
+    }
+  }
+
+  /**
+   * Ends a batch of allocation changes and publishes the changes.
+   */
+  public void endAllocation() {
+    synchronized (snapshotLock) {
+      if (snapshotBatch > 0 && --snapshotBatch == 0 && snapshotChanged) {
+	buildSnapshot();
+      }
+    }
+  }
+
   public void setAllocation(int auction, int alloc) {
-    allocate[auction] = alloc;
+    synchronized (snapshotLock) {
+      allocate[auction] = alloc;
+      publishSnapshot();
+    }
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      journal.allocation(auction, alloc);
+    }
     if (tableModel != null) {
       tableModel.fireTableCellUpdated(auction, 8);
     }
   }
 
   public void clearAllocation() {
+    synchronized (snapshotLock) {
+      for (int i = 0; i < NO_AUCTIONS; i++) {
+	allocate[i] = 0;
+      }
+      publishSnapshot();
+    }
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      journal.allocation(-1, 0);
+    }
+  }
+
+  // Publishes a new snapshot of the current market state unless an
+  // allocation batch is in progress. Should be called after the state
+  // has changed but before the agent is told about the change.
+  private void publishSnapshot() {
+    synchronized (snapshotLock) {
+      if (snapshotBatch > 0) {
+	snapshotChanged = true;
+      } else {
+	buildSnapshot();
+      }
+    }
+  }
+
+  // Notes a change to be included in the next published snapshot
+  private void snapshotChanged() {
+    synchronized (snapshotLock) {
+      snapshotChanged = true;
+    }
+  }
+
+  // Publishes a new snapshot if there are unpublished changes
+  private void publishChangedSnapshot() {
+    synchronized (snapshotLock) {
+      if (snapshotChanged && snapshotBatch == 0) {
+	buildSnapshot();
+      }
+    }
+  }
+
+  // Must be called with the snapshot lock held
+  private void buildSnapshot() {
+    MarketSnapshot s =
+      new MarketSnapshot(snapshot.getVersion() + 1, playingGame,
+			 getServerTime(), NO_AUCTIONS);
     for (int i = 0; i < NO_AUCTIONS; i++) {
-      allocate[i] = 0;
+      QuoteView quote = quotes[i].read(snapshotView);
+      Bid bid = getBid(i);
+      s.auctionIDs[i] = auctionIDs[i];
+      s.askPrices[i] = quote.getAskPrice();
+      s.bidPrices[i] = quote.getBidPrice();
+      s.hqws[i] = quote.getHQW();
+      s.status[i] = quote.getAuctionStatus();
+      s.owns[i] = owns[i];
+      s.probablyOwns[i] = bid == null ? 0
+	: (quote.hasHQW(bid) ? quote.getHQW() : bid.getQuantity());
+      s.costs[i] = costs[i];
+      s.allocations[i] = allocate[i];
     }
+    snapshotChanged = false;
+    snapshot = s;
   }
 
   private void clearAll() {
@@ -703,20 +1099,48 @@ public class TACAgent implements Task, TACMessageReceiver {
       }
     }
 
-    for (int i = 0; i < NO_AUCTIONS; i++) {
-      auctionIDs[i] = 0;
-      owns[i] = 0;
-      bids[i] = null;
-      costs[i] = 0f;
-      allocate[i] = 0;
-      quotes[i].clearAll();
-      pendingQuotes[i] = 0L;
+    synchronized (snapshotLock) {
+      for (int i = 0; i < NO_AUCTIONS; i++) {
+	auctionIDs[i] = 0;
+	owns[i] = 0;
+	bids.set(i, null);
+	costs[i] = 0f;
+	allocate[i] = 0;
+	quotes[i].clearAll();
+	quoteHistory[i].clear();
+	pendingQuotes[i] = 0L;
+      }
+      changedQuotes.set(0L);
+      ledger.clear();
+      publishSnapshot();
     }
     if (tableModel != null) {
       tableModel.fireTableDataChanged();
     }
   }
 
+  /**
+   * Starts a burst of messages to the server. The messages sent until
+   * the matching call to endBatch() may be written to the server
+   * together instead of one by one. Batches can be nested.
+   */
+  public void beginBatch() {
+    TACConnection connection = this.connection;
+    if (connection != null) {
+      connection.beginBatch();
+    }
+  }
+
+  /**
+   * Ends a burst of messages and sends all messages held back.
+   */
+  public void endBatch() {
+    TACConnection connection = this.connection;
+    if (connection != null) {
+      endBatch(connection);
+    }
+  }
+
   public void submitBid(Bid bid) {
     if (getGameID() < 0) {
       throw new IllegalStateException("No game playing");
@@ -742,21 +1166,27 @@ public class TACAgent implements Task, TACMessageReceiver {
       throw new IllegalArgumentException("Bids do not have same AuctionID");
     }
     bid.submitted();
-    if (oldBid != bids[auction]) {
+    boolean isActive;
+    // The active bid must not change between the check and the update
+    lockBid(auction);
+    try {
+      isActive = oldBid == bids.get(auction);
+      if (isActive) {
+	updateBid(bid);
+      }
+    } finally {
+      bidLocks[auction].unlock();
+    }
+    if (!isActive) {
       bid.setRejectReason(Bid.ACTIVE_BID_CHANGED);
       bid.setProcessingState(Bid.REJECTED);
-      try {
-	agent.bidRejected(bid);
-      } catch (Exception e) {
-	log.log(Level.SEVERE, "agent could not handle bidRejected", e);
-      }
+      dispatcher.bidRejected(bid);
     } else {
       TACMessage msg = new TACMessage("replaceBid");
       msg.setParameter("bidID", oldBid.getID());
       msg.setParameter("bidHash", oldBid.getBidHash());
 
       prepareBidMsg(msg, bid);
-      updateBid(bid);
       sendMessage(msg, this);
     }
   }
@@ -778,7 +1208,7 @@ public class TACAgent implements Task, TACMessageReceiver {
     printOwn("amusement", MIN_ENTERTAINMENT + 4, MIN_ENTERTAINMENT + 8, sb);
     sb.append(',');
     printOwn("museum", MIN_ENTERTAINMENT + 8, MIN_ENTERTAINMENT + 12, sb);
-    sb.append(EOL);
+    sb.append(EOL).append(ledger).append(EOL);
     log.fine(sb.toString());
   }
 
@@ -810,13 +1240,21 @@ public class TACAgent implements Task, TACMessageReceiver {
     if (connection == conn) {
       log.fine("performing connection reset");
       cancelTimers();
+      if (requestScheduler != null) {
+	requestScheduler.clear();
+      }
       // Clear transaction q
-      transActionsNum = 0;
-      waitActionsNum = 0;
+      lock(transLock, NO_AUCTIONS);
+      try {
+	reconciler.clear();
+      } finally {
+	transLock.unlock();
+      }
       disconnect(500);
       playingGame = -1;
       nextGameID = -1;
       exitGameLog();
+      closeJournal();
 
       TACMessage.resetResponseTime();
 
@@ -844,12 +1282,20 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
   }
 
+  private void endBatch(TACConnection connection) {
+    try {
+      connection.endBatch();
+    } catch (IOException e) {
+      log.log(Level.WARNING, "could not send messages", e);
+      reset(0, connection);
+    }
+  }
+
   public void sendMessage(TACMessage msg, TACMessageReceiver recv) {
     TACConnection connection = this.connection;
     if (connection != null) {
       try {
-	msg.setMessageReceiver(recv);
-	connection.sendMessage(msg);
+	sendMessage(connection, msg, recv);
       } catch (IOException e) {
 	log.log(Level.WARNING, "could not send message " + msg.getType(), e);
 	reset(0, connection);
@@ -859,7 +1305,21 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
   }
 
+  // Sends the message through the request scheduler when the request
+  // rate is limited
+  private void sendMessage(TACConnection conn, TACMessage msg,
+			   TACMessageReceiver recv) throws IOException {
+    msg.setMessageReceiver(recv);
+    RequestScheduler scheduler = this.requestScheduler;
+    if (scheduler != null) {
+      scheduler.sendMessage(conn, msg);
+    } else {
+      conn.sendMessage(msg);
+    }
+  }
+
   public void messageReceived(TACMessage msg) {
+    TACParser parser = msg.getParser();
     if (msg.isTACError()) {
       // A TAC Error was received as reply for the message
       String type = msg.getType();
@@ -868,20 +1328,27 @@ public class TACAgent implements Task, TACMessageReceiver {
 	// server might return tacerror for unknown message types.
 	log.warning("ignoring error for getGameConst: " + msg.getValue());
       } else {
-	agent.tacerrorReceived(msg);
+	dispatcher.tacerrorReceived(msg);
       }
 
-    } else if (msg.nextTag() && (!msg.isDeclaration() || msg.nextTag())) {
-      if (msg.isTag("auth")) {
+    } else if (parser.nextTag()
+	       && (!parser.isDeclaration() || parser.nextTag())) {
+      switch (parser.getTagID()) {
+      case TACTag.AUTH:
 	handleLogin(msg);
-      } else if (msg.isTag("serverTime")) {
+	break;
+      case TACTag.SERVER_TIME:
 	handleServerTime(msg);
-      } else if (msg.isTag("nextGame")) {
+	break;
+      case TACTag.NEXT_GAME:
 	handleNextGame(msg);
-      } else if (msg.isTag("getGameParams")) {
+	break;
+      case TACTag.GET_GAME_PARAMS:
 	handleGetGame(msg);
+	publishSnapshot();
 	// Get the transactions before the games starts
-	requestTransactions(OP_GAME_STARTS);
+	requestTransactions(new TransactionReconciler
+			    .Action(TransactionReconciler.GAME_STARTS));
 	if (display != null) {
 	  String status = playingGameType != null
 	    ? userName + ": Showing game " + nextGameID
@@ -889,24 +1356,33 @@ public class TACAgent implements Task, TACMessageReceiver {
 	    : userName + ": Showing game " + nextGameID;
 	  display.setGameStatus(status);
 	}
-      } else if (msg.isTag("getGameAuctionIDs")) {
+	break;
+      case TACTag.GET_GAME_AUCTION_IDS:
 	handleGetAuctions(msg);
-      } else if (msg.isTag("getGameConsts")) {
+	publishSnapshot();
+	break;
+      case TACTag.GET_GAME_CONSTS:
 	handleGetConstants(msg);
-      } else if (msg.isTag("submitBid")) {
-	handleBidSubmission(msg);
-      } else if (msg.isTag("replaceBid")) {
+	break;
+      case TACTag.SUBMIT_BID:
+      case TACTag.REPLACE_BID:
 	handleBidSubmission(msg);
-      } else if (msg.isTag("getQuote")) {
+	break;
+      case TACTag.GET_QUOTE:
 	handleQuote(msg);
-      } else if (msg.isTag("bidInfo")) {
+	break;
+      case TACTag.BID_INFO:
 	handleBidInfo(msg);
-      } else if (msg.isTag("transIDs")) {
+	break;
+      case TACTag.TRANS_IDS:
 	handleTransIDs(msg);
-      } else if (msg.isTag("transInfo")) {
+	break;
+      case TACTag.TRANS_INFO:
 	handleTransInfo(msg);
-      } else if (msg.isTag("recoverBidIDs")) {
+	break;
+      case TACTag.RECOVER_BID_IDS:
 	handleRecoverBidIDs(msg);
+	break;
       }
     }
   }
@@ -918,11 +1394,12 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
 
     // Set stat info if more than 5 messages sent!
-    if (TACMessage.getMessageCount() > 5) {
+    LatencyHistogram responseTimes = TACMessage.getResponseTimes();
+    long messageCount = responseTimes.getCount();
+    if (messageCount > 5) {
       msg.setParameter("stat.avgResponseTime",
-		       "" + TACMessage.getAverageResponseTime());
-      msg.setParameter("stat.messageCount",
-		       "" + TACMessage.getMessageCount());
+		       (float) responseTimes.getMean());
+      msg.setParameter("stat.messageCount", "" + messageCount);
     }
 
     sendMessage(msg, this);
@@ -932,26 +1409,31 @@ public class TACAgent implements Task, TACMessageReceiver {
 			     boolean hotelQuotes) {
     // This should be changed so that it will only request those quotes
     // that are old enough...
-    if (flightQuotes) {
-      for (int i = MIN_FLIGHT; i <= MAX_FLIGHT ; i++) {
+    conn.beginBatch();
+    try {
+      if (flightQuotes) {
+	for (int i = MIN_FLIGHT; i <= MAX_FLIGHT ; i++) {
+	  if (!quotes[i].isAuctionClosed()) {
+	    requestQuote(quotes[i], conn, false);
+	  }
+	}
+      }
+      for (int i = MIN_ENTERTAINMENT; i <= MAX_ENTERTAINMENT ; i++) {
 	if (!quotes[i].isAuctionClosed()) {
 	  requestQuote(quotes[i], conn, false);
 	}
       }
-    }
-    for (int i = MIN_ENTERTAINMENT; i <= MAX_ENTERTAINMENT ; i++) {
-      if (!quotes[i].isAuctionClosed()) {
-	requestQuote(quotes[i], conn, false);
-      }
-    }
 
-    if (hotelQuotes) {
-      for (int i = MIN_HOTEL; i <= MAX_HOTEL ; i++) {
-	if (!quotes[i].isAuctionClosed()) {
-	  lastHotelAuction = i;
-	  requestQuote(quotes[i], conn, false);
+      if (hotelQuotes) {
+	for (int i = MIN_HOTEL; i <= MAX_HOTEL ; i++) {
+	  if (!quotes[i].isAuctionClosed()) {
+	    lastHotelAuction = i;
+	    requestQuote(quotes[i], conn, false);
+	  }
 	}
       }
+    } finally {
+      endBatch(conn);
     }
   }
 
@@ -982,7 +1464,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 	try {
 	  TACMessage msg = new TACMessage("getQuote");
 	  msg.setParameter("auctionID", auctionID);
-	  Bid bid = bids[auction];
+	  Bid bid = getBid(auction);
 	  msg.setUserData(quote);
 	  if (bid != null) {
 	    int id;
@@ -997,7 +1479,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 	      msg.setUserData(bid);
 	    }
 	  }
-	  conn.sendMessage(msg, this);
+	  sendMessage(conn, msg, this);
 	} catch (Exception e) {
 	  log.log(Level.SEVERE, "could not request quote for auction "
 		  + auction + " (" + getAuctionTypeAsString(auction) + ')', e);
@@ -1011,54 +1493,50 @@ public class TACAgent implements Task, TACMessageReceiver {
   private void requestBidInfos(TACConnection conn) {
     Bid bid;
     int bidID;
+    conn.beginBatch();
     try {
       for (int i = 0; i < NO_AUCTIONS; i++) {
-	bid = bids[i];
+	bid = getBid(i);
 	if (bid != null && ((bidID = bid.getID()) != Bid.NO_ID)
 	    && !quotes[i].isAuctionClosed()) {
 	  TACMessage msg = new TACMessage("bidInfo");
 	  msg.setParameter("bidID", bidID);
 	  msg.setUserData(bid);
-	  conn.sendMessage(msg, this);
+	  sendMessage(conn, msg, this);
 	}
       }
+      requestTransactions(null);
     } catch (IOException e) {
       log.log(Level.SEVERE, "could not request bid infos", e);
       reset(0, conn);
+    } finally {
+      endBatch(conn);
     }
-    requestTransactions(OP_NOOP);
   }
 
-  private synchronized void requestTransactions(int call) {
-    if (transActionsNum == 0) {
-      transActions[0] = call;
-      transActionsNum++;
-      TACMessage msg = new TACMessage("transIDs");
-      msg.setParameter("earliestTransID", earliestTransID);
-      lastSentTransactionRequest = System.currentTimeMillis();
-      sendMessage(msg, this);
-    } else {
-      if (waitActionsNum == waitActions.length) {
-	int[] tmp = new int[waitActions.length * 2];
-	System.arraycopy(waitActions, 0, tmp, 0, waitActionsNum);
-	waitActions = tmp;
-      }
-      waitActions[waitActionsNum++] = call;
-
-      long currentTime = System.currentTimeMillis();
-      if ((currentTime - lastSentTransactionRequest) > 30000) {
-	// Too long time after last sent transaction
-	TACMessage msg = new TACMessage("transIDs");
-	msg.setParameter("earliestTransID", earliestTransID);
-	lastSentTransactionRequest = currentTime;
-	log.warning("WARNING: transaction timeout after "
-		    + ((currentTime - lastSentTransactionRequest) / 1000)
-		    + " sec!!! (resending)");
-	sendMessage(msg, this);
+  // Performs the action when all transactions known by the server
+  // have been retrieved. A null action only retrieves new transactions.
+  private void requestTransactions(TransactionReconciler.Action action) {
+    lock(transLock, NO_AUCTIONS);
+    try {
+      TransactionReconciler.Round round =
+	reconciler.addAction(action, System.currentTimeMillis());
+      if (round != null) {
+	sendTransIDs(round);
       }
+    } finally {
+      transLock.unlock();
     }
   }
 
+  // Must be called with the transaction lock held
+  private void sendTransIDs(TransactionReconciler.Round round) {
+    TACMessage msg = new TACMessage("transIDs");
+    msg.setParameter("earliestTransID", earliestTransID);
+    msg.setUserData(round);
+    sendMessage(msg, this);
+  }
+
   private void prepareBidMsg(TACMessage msg, Bid bid) {
     int auction = bid.getAuction();
     msg.setParameter("auctionID", auctionIDs[auction]);
@@ -1076,7 +1554,36 @@ public class TACAgent implements Task, TACMessageReceiver {
     playingGameType = null;
     gameLength = DEFAULT_GAME_LENGTH;
     earliestTransID = -1;
+    lock(transLock, NO_AUCTIONS);
+    try {
+      reconciler.clearRequested();
+    } finally {
+      transLock.unlock();
+    }
+    // Response times are measured per game
+    TACMessage.resetResponseTime();
+    if (conn != null) {
+      conn.resetStatistics();
+    }
+    dispatcher.resetStatistics();
+    TimeDispatcher.getDefault().getLateness().reset();
+    if (quoteScheduler != null) {
+      quoteScheduler.resetStatistics();
+    }
+    if (requestScheduler != null) {
+      requestScheduler.resetStatistics();
+    }
+    lock(transLock, NO_AUCTIONS);
+    try {
+      reconciler.resetStatistics();
+    } finally {
+      transLock.unlock();
+    }
+    for (int i = 0, n = lockContention.length(); i < n; i++) {
+      lockContention.set(i, 0L);
+    }
     enterGameLog(nextGameID);
+    openJournal(nextGameID);
     log.fine("Starting up game: " + playingGame);
 
     // If illegal state, end game and restart... should not happen?
@@ -1089,7 +1596,7 @@ public class TACAgent implements Task, TACMessageReceiver {
     try {
       TACMessage msg = new TACMessage("getGameAuctionIDs");
       msg.setParameter("gameID", nextGameID);
-      conn.sendMessage(msg, this);
+      sendMessage(conn, msg, this);
     } catch (IOException e) {
       log.log(Level.SEVERE, "could not request game auctions", e);
       reset(0, conn);
@@ -1098,6 +1605,41 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private void gameEnds() {
     log.fine("Game " + nextGameID + " has ended");
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("response times (ms) for game:\n"
+	       + TACMessage.getResponseTimeStatistics());
+    }
+    TACConnection connection = this.connection;
+    if (connection != null && connection.getWriteCount() > 0) {
+      LatencyHistogram batchWrites = connection.getBatchWriteCounts();
+      log.fine("sent " + connection.getMessageCount() + " messages in "
+	       + connection.getWriteCount() + " writes"
+	       + (batchWrites != null
+		  ? ", writes per batch " + batchWrites
+		  : ""));
+    }
+    if (dispatcher.getMode() != AgentDispatcher.INLINE) {
+      log.fine("agent callbacks " + dispatcher.getStatistics());
+    }
+    log.fine("timer lateness (ms) "
+	     + TimeDispatcher.getDefault().getLateness());
+    if (quoteScheduler != null) {
+      log.fine("quote polling " + quoteScheduler.getStatistics());
+    }
+    if (requestScheduler != null) {
+      log.fine("request rate " + requestScheduler.getStatistics());
+    }
+    lock(transLock, NO_AUCTIONS);
+    try {
+      log.fine("transactions " + reconciler.getStatistics());
+    } finally {
+      transLock.unlock();
+    }
+    log.fine("position " + ledger);
+    long contention = getLockContention();
+    if (contention > 0) {
+      log.fine("bid and transaction locks busy " + contention + " times");
+    }
     playingGame = -1;
     nextGameID = -1;
     isGameStarted = false;
@@ -1105,7 +1647,8 @@ public class TACAgent implements Task, TACMessageReceiver {
     cancelTimers();
 
     if (earliestTransID != -1) {
-      requestTransactions(OP_GAME_ENDS);
+      requestTransactions(new TransactionReconciler
+			  .Action(TransactionReconciler.GAME_ENDS));
     } else {
       handleGameEnd();
     }
@@ -1117,6 +1660,8 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private synchronized void handleGameEnd() {
     exitGameLog();
+    // The journal is only needed to restart the agent during the game
+    deleteJournal();
     if (exitAfterGames > 0 && gamesPlayed >= exitAfterGames) {
       // We have played the specified number of games
       log.info("Exit as requested after " + exitAfterGames
@@ -1130,10 +1675,12 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private boolean handleLogin(TACMessage msg) {
+    TACParser parser = msg.getParser();
     int status = NO_ERROR;
-    while (msg.nextTag()) {
-      if (msg.isTag("userID")) {
-	userID = msg.getValueAsInt(-1);
+    while (parser.nextTag()) {
+      switch (parser.getTagID()) {
+      case TACTag.USER_ID:
+	userID = parser.getValueAsInt(-1);
 	log.fine("Logged in as " + userID);
 	TACMessage msg2 = new TACMessage("serverTime");
 	sendMessage(msg2, this);
@@ -1143,8 +1690,9 @@ public class TACAgent implements Task, TACMessageReceiver {
 	  requestNextGame();
 	}
 	return true;
-      } else if (msg.isTag("commandStatus")) {
-	status = msg.getValueAsInt(NO_ERROR);
+      case TACTag.COMMAND_STATUS:
+	status = parser.getValueAsInt(NO_ERROR);
+	break;
       }
     }
     fatalError("Failed to login as " + userName + ": status="
@@ -1153,24 +1701,28 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private void handleBidSubmission(TACMessage msg) {
+    TACParser parser = msg.getParser();
     Bid bid = (Bid) msg.getUserData();
     int status = NO_ERROR;
 
-    while (msg.nextTag()) {
-      if (msg.isTag("bidID")) {
-	int id = msg.getValueAsInt(Bid.NO_ID);
-	bid.setID(id);
-      } else if (msg.isTag("bidHash")) {
-	String hash = msg.getValue();
-	bid.setBidHash(hash);
-      } else if (msg.isTag("rejectReason")) {
-	int reject = msg.getValueAsInt(Bid.NOT_REJECTED);
+    while (parser.nextTag()) {
+      switch (parser.getTagID()) {
+      case TACTag.BID_ID:
+	bid.setID(parser.getValueAsInt(Bid.NO_ID));
+	break;
+      case TACTag.BID_HASH:
+	bid.setBidHash(parser.getValue());
+	break;
+      case TACTag.REJECT_REASON:
+	int reject = parser.getValueAsInt(Bid.NOT_REJECTED);
 	bid.setRejectReason(reject);
 	if (reject != Bid.NOT_REJECTED) {
 	  bid.setProcessingState(Bid.REJECTED);
 	}
-      } else if (msg.isTag("commandStatus")) {
-	status = mapCommandStatus(msg.getValueAsInt(NO_ERROR));
+	break;
+      case TACTag.COMMAND_STATUS:
+	status = mapCommandStatus(parser.getValueAsInt(NO_ERROR));
+	break;
       }
     }
 
@@ -1185,6 +1737,8 @@ public class TACAgent implements Task, TACMessageReceiver {
       fatalError("Can not handle bid submission: "
 		 + commandStatusToString(status), 5000);
     } else {
+      journalBid(bid.getAuction());
+
       // Request Bid info
       TACMessage msg2 = new TACMessage("bidInfo");
       msg2.setParameter("bidID", bid.getID());
@@ -1200,44 +1754,39 @@ public class TACAgent implements Task, TACMessageReceiver {
   // the bid "bid" has been rejected/ or in error
   // ensure that the information about active bid, etc is correct
   // call agent
-  private synchronized void revertBid(Bid bid, int status) {
+  private void revertBid(Bid bid, int status) {
     int auction = bid.getAuction();
 
-    Bid activeBid = getBid(auction);
+    lockBid(auction);
+    try {
+      Bid activeBid = getBid(auction);
 
-    if (bid.same(activeBid)) {
-      activeBid = bid.getReplacing();
-      if (activeBid != null) {
-	bids[auction] = activeBid;
-      } else {
-	bids[auction] = null;
-      }
-    } else if (activeBid != null) {
-      Bid child;
-      while ((child = activeBid.getReplacing()) != null && !child.same(bid)) {
-	activeBid = child;
-      }
-      if (child != null && child.same(bid)) {
-	activeBid.setReplacing(child.getReplacing());
-	bid = null;
+      if (bid.same(activeBid)) {
+	activeBid = bid.getReplacing();
+	bids.set(auction, activeBid);
+      } else if (activeBid != null) {
+	Bid child;
+	while ((child = activeBid.getReplacing()) != null
+	       && !child.same(bid)) {
+	  activeBid = child;
+	}
+	if (child != null && child.same(bid)) {
+	  activeBid.setReplacing(child.getReplacing());
+	  bid = null;
+	}
       }
-      activeBid = null;
+    } finally {
+      bidLocks[auction].unlock();
     }
+    publishSnapshot();
+    journalBid(auction);
 
     // if this was the active bid
     if (bid != null) {
       if (status == NO_ERROR) {
-	try {
-	  agent.bidRejected(bid);
-	} catch (Exception e) {
-	  log.log(Level.SEVERE, "agent could not handle bidRejected", e);
-	}
+	dispatcher.bidRejected(bid);
       } else {
-	try {
-	  agent.bidError(bid, status);
-	} catch (Exception e) {
-	  log.log(Level.SEVERE, "agent could not handle bidError", e);
-	}
+	dispatcher.bidError(bid, status);
       }
     }
 
@@ -1247,213 +1796,330 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private void handleTransIDs(TACMessage msg) {
-    TACMessage msg2 = null;
-    int oldEarliest = earliestTransID;
-    while (msg.nextTag()) {
-      if (msg.isTag("transID")) {
-	int id = msg.getValueAsInt(-1);
-	if (id > earliestTransID) {
-	  earliestTransID = id;
-	}
-	if (id > oldEarliest) {
-	  msg2 = new TACMessage("transInfo");
-	  msg2.setParameter("transID", id);
-	  sendMessage(msg2, this);
+    TACParser parser = msg.getParser();
+    TransactionReconciler.Round round =
+      (TransactionReconciler.Round) msg.getUserData();
+    int infos = 0;
+    boolean isCompleted;
+    lock(transLock, NO_AUCTIONS);
+    try {
+      int oldEarliest = earliestTransID;
+      beginBatch();
+      try {
+	while (parser.nextTag()) {
+	  if (parser.getTagID() == TACTag.TRANS_ID) {
+	    int id = parser.getValueAsInt(-1);
+	    if (id > earliestTransID) {
+	      earliestTransID = id;
+	    }
+	    if (id > oldEarliest) {
+	      // All new transactions are requested at once
+	      TACMessage msg2 = new TACMessage("transInfo");
+	      msg2.setParameter("transID", id);
+	      msg2.setUserData(round);
+	      reconciler.infoRequested(id);
+	      sendMessage(msg2, this);
+	      infos++;
+	    }
+	  }
 	}
+      } finally {
+	endBatch();
       }
+      isCompleted = reconciler.idsReceived(round, infos);
+    } finally {
+      transLock.unlock();
     }
-    if (msg2 != null) {
-      // Indicate that this was the last for this transaction sessions
-      msg2.setUserData(this);
-    } else {
+    if (isCompleted) {
       // Nothing to retrieve
-      callAgent();
+      callAgent(round);
     }
   }
 
   private void handleTransInfo(TACMessage msg) {
+    TACParser parser = msg.getParser();
+    int transID = Integer.parseInt(msg.getParameter("transID"));
     int quantity = 0;
     int auction = 0;
     float price = 0f;
     int status = NO_ERROR;
-    while (msg.nextTag()) {
-      if (msg.isTag("/transInfo")) {
+    while (parser.nextTag()) {
+      switch (parser.getTagID()) {
+      case TACTag.END | TACTag.TRANS_INFO:
 	if (status == NO_ERROR) {
 	  Transaction trans = new Transaction(auction, quantity, price);
-	  owns[auction] += quantity;
-	  costs[auction] += quantity * price;
-	  try {
-	    if (tableModel != null) {
-	      tableModel.fireTableRowsUpdated(auction, auction);
-	    }
-	    agent.transaction(trans);
-	  } catch (Exception e) {
-	    log.log(Level.SEVERE, "agent could not handle transaction "
-		    + trans, e);
+	  synchronized (snapshotLock) {
+	    owns[auction] += quantity;
+	    costs[auction] += quantity * price;
+	    ledger.addTransaction(auction, quantity, price);
+	    publishSnapshot();
 	  }
+	  GameJournal journal = this.journal;
+	  if (journal != null) {
+	    journal.transaction(transID, auction, quantity, price);
+	  }
+	  if (tableModel != null) {
+	    tableModel.fireTableRowsUpdated(auction, auction);
+	  }
+	  dispatcher.transaction(trans);
 	} else {
 	  // What should we do here??? FIX THIS!!!
 	}
-      } else if (msg.isTag("quantity")) {
-	quantity = (int) msg.getValueAsFloat(0f);
-      } else if (msg.isTag("price")) {
-	price =  msg.getValueAsFloat(0f);
-      } else if (msg.isTag("auctionID")) {
-	auction = getAuctionPos(msg.getValueAsInt(0));
-      } else if (msg.isTag("commandStatus")) {
-	status = msg.getValueAsInt(NO_ERROR);
+	break;
+      case TACTag.QUANTITY:
+	quantity = (int) parser.getValueAsFloat(0f);
+	break;
+      case TACTag.PRICE:
+	price =  parser.getValueAsFloat(0f);
+	break;
+      case TACTag.AUCTION_ID:
+	auction = getAuctionPos(parser.getValueAsInt(0));
+	break;
+      case TACTag.COMMAND_STATUS:
+	status = parser.getValueAsInt(NO_ERROR);
+	break;
       }
     }
-    Object obj = msg.getUserData();
-    if (obj != null) {
-      callAgent();
+    TransactionReconciler.Round round =
+      (TransactionReconciler.Round) msg.getUserData();
+    boolean isCompleted;
+    lock(transLock, NO_AUCTIONS);
+    try {
+      // Only received after the transaction has been journaled
+      isCompleted = reconciler.infoReceived(round, transID);
+    } finally {
+      transLock.unlock();
+    }
+    if (isCompleted) {
+      callAgent(round);
     }
   }
 
-  private void callAgent() {
-    for (int i = 0; i < transActionsNum; i++) {
-      int ival = transActions[i];
-      if ((OP_CLEAR_BID & ival) != 0) {
-	clearBid(ival - OP_CLEAR_BID);
+  private void callAgent(TransactionReconciler.Round round) {
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      // Transactions of abandoned rounds might not have been received
+      // so only the transactions up to the first one not yet received
+      // are known to be journaled
+      int checkpoint;
+      lock(transLock, NO_AUCTIONS);
+      try {
+	checkpoint = reconciler.getReceivedTransID(earliestTransID);
+      } finally {
+	transLock.unlock();
+      }
+      if (checkpoint >= 0) {
+	journal.checkpoint(checkpoint);
+      }
+    }
+    for (int i = 0, n = round.getActionCount(); i < n; i++) {
+      TransactionReconciler.Action action = round.getAction(i);
+      int type = action.type;
+      if (type == TransactionReconciler.CLEAR_BID) {
+	clearBid(action.auction, action.clearID);
       } else {
 	try {
-	  if ((OP_CLOSE_AUCTION & ival) != 0) {
-	    agent.auctionClosed(ival - OP_CLOSE_AUCTION);
-	  } else if (ival == OP_GAME_STARTS) {
+	  if (type == TransactionReconciler.CLOSE_AUCTION) {
+	    dispatcher.auctionClosed(action.auction);
+	  } else if (type == TransactionReconciler.GAME_STARTS) {
 	    // Another game is being played
 	    if (playingGame != lastGamePlayed) {
 	      lastGamePlayed = playingGame;
 	      gamesPlayed++;
 	    }
-	    agent.gameStarted();
-	  } else if (ival == OP_GAME_ENDS) {
-	    agent.gameStopped();
+	    dispatcher.gameStarted();
+	  } else if (type == TransactionReconciler.GAME_ENDS) {
+	    dispatcher.gameStopped();
 	  }
 	} catch (Throwable e) {
 	  log.log(Level.SEVERE, "agent could not handle operation " +
-		  ival, e);
+		  action, e);
 	  // Check if thread was killed
 	  if (e instanceof ThreadDeath) {
 	    throw (ThreadDeath) e;
 	  }
 	}
 
-	if (ival == OP_GAME_ENDS) {
+	if (type == TransactionReconciler.GAME_ENDS) {
 	  handleGameEnd();
-	} else if (ival == OP_GAME_STARTS) {
+	} else if (type == TransactionReconciler.GAME_STARTS) {
 	  TimeDispatcher d = TimeDispatcher.getDefault();
 	  long currentTime = getServerTime();
 	  isGameStarted = true;
 	  d.addTask(currentTime + INFO_UPDATE_PERIOD,
-		    "quotes", connection, this);
+		    "quotes", connection, this, timers);
 	  d.addTask(currentTime + (int) (1.5 * INFO_UPDATE_PERIOD),
-		    "bids", connection, this);
+		    "bids", connection, this, timers);
 	  if (printOwnDelay > 0) {
 	    d.addTask(currentTime + printOwnDelay,
-		      "printOwn", connection, this);
+		      "printOwn", connection, this, timers);
 	  }
 
-	  // Start the hotel quote fetch (one second after update)
-	  long nextHotelTime = startTime + 61000;
-	  if (nextHotelTime < currentTime) {
-	    nextHotelTime += 60000 * ((currentTime - nextHotelTime) / 60000);
-	  }
-	  long nextFlightTime = startTime + 11000;
-	  if (nextFlightTime < currentTime) {
-	    nextFlightTime += 10000 * ((currentTime - nextFlightTime) / 10000);
-	  }
+	  if (quoteScheduler != null) {
+	    // Request the quotes just after they are cleared
+	    scheduleQuotes(CAT_HOTEL, QuoteScheduler
+			   .getNextClearTime(0L, startTime, 60000,
+					     currentTime));
+	    scheduleQuotes(CAT_FLIGHT, QuoteScheduler
+			   .getNextClearTime(0L, startTime, 10000,
+					     currentTime));
+	    requestQuotes(connection, true, true);
+	  } else {
+	    // Start the hotel quote fetch (one second after update)
+	    long nextHotelTime = startTime + 61000;
+	    if (nextHotelTime < currentTime) {
+	      nextHotelTime +=
+		60000 * ((currentTime - nextHotelTime) / 60000);
+	    }
+	    long nextFlightTime = startTime + 11000;
+	    if (nextFlightTime < currentTime) {
+	      nextFlightTime +=
+		10000 * ((currentTime - nextFlightTime) / 10000);
+	    }
 
-	  TimeDispatcher.getDefault().addTask(nextHotelTime,
-					      "hotelQuotes",
-					      connection, this);
-	  TimeDispatcher.getDefault().addTask(nextFlightTime,
-					      "flightQuotes",
-					      connection, this);
-	  requestQuotes(connection, true, true);
+	    TimeDispatcher.getDefault().addTask(nextHotelTime,
+						"hotelQuotes",
+						connection, this, timers);
+	    TimeDispatcher.getDefault().addTask(nextFlightTime,
+						"flightQuotes",
+						connection, this, timers);
+	    requestQuotes(connection, true, true);
+	  }
 	}
       }
     }
-    swapTransactions();
+    nextTransactions();
   }
 
-  private synchronized void swapTransactions() {
-    if (waitActionsNum == 0) {
-      transActionsNum = 0;
-      // Do nothing more...
-    } else {
-      // Set up actions to call after next transaction
-      transActionsNum = waitActionsNum;
-      int[] tmp = transActions;
-      transActions = waitActions;
-      waitActions = tmp;
-      waitActionsNum = 0;
-
-      // Request new transaction!!!
-      TACMessage msg = new TACMessage("transIDs");
-      msg.setParameter("earliestTransID", earliestTransID);
-      sendMessage(msg, this);
+  private void nextTransactions() {
+    lock(transLock, NO_AUCTIONS);
+    try {
+      // Request the transactions for the actions added meanwhile
+      TransactionReconciler.Round round =
+	reconciler.nextRound(System.currentTimeMillis());
+      if (round != null) {
+	sendTransIDs(round);
+      }
+    } finally {
+      transLock.unlock();
     }
   }
 
   private void handleQuote(TACMessage msg) {
+    TACParser parser = msg.getParser();
     Object obj = msg.getUserData();
     Quote quote;
     int auction;
+    QuoteView old = quoteViews.get();
+    Bid bid;
+    int hqw;
     if (obj instanceof Quote) {
       quote = (Quote) obj;
       auction = quote.getAuction();
+      quote.read(old);
+      bid = old.getBid();
+      hqw = old.getHQW();
     } else {
-      Bid bid = (Bid) obj;
+      bid = (Bid) obj;
       auction = bid.getAuction();
       quote = quotes[auction];
-      quote.setHQW(-1);
-      quote.setBid(bid);
+      quote.read(old);
+      hqw = -1;
     }
 
     // Quote is no longer pending
     pendingQuotes[auction] = 0L;
 
-    int oldAuctionStatus = quote.getAuctionStatus();
-    while (msg.nextTag()) {
-      if (msg.isTag("lastAskPrice")) {
-	quote.setAskPrice(msg.getValueAsFloat(0f));
-      } else if (msg.isTag("lastBidPrice")) {
-	quote.setBidPrice(msg.getValueAsFloat(0f));
-      } else if (msg.isTag("hypotheticalQuantityWon")) {
-	quote.setHQW(msg.getValueAsInt(-1));
-      } else if (msg.isTag("auctionStatus")) {
-	quote.setAuctionStatus(msg.getValueAsInt(Quote.AUCTION_INITIALIZING));
-      } else if (msg.isTag("nextQuoteTime")) {
-	quote.setNextQuoteTime(1000 * msg.getValueAsLong(0));
-      } else if (msg.isTag("auctionStatus")) {
-	quote.setLastQuoteTime(1000 * msg.getValueAsLong(0));
+    // The new values are collected first and then set together so
+    // that readers never see a partially updated quote
+    int oldAuctionStatus = old.getAuctionStatus();
+    float askPrice = old.getAskPrice();
+    float bidPrice = old.getBidPrice();
+    int auctionStatus = oldAuctionStatus;
+    long nextQuoteTime = old.getNextQuoteTime();
+    while (parser.nextTag()) {
+      switch (parser.getTagID()) {
+      case TACTag.LAST_ASK_PRICE:
+	askPrice = parser.getValueAsFloat(0f);
+	break;
+      case TACTag.LAST_BID_PRICE:
+	bidPrice = parser.getValueAsFloat(0f);
+	break;
+      case TACTag.HYPOTHETICAL_QUANTITY_WON:
+	hqw = parser.getValueAsInt(-1);
+	break;
+      case TACTag.AUCTION_STATUS:
+	auctionStatus = parser.getValueAsInt(Quote.AUCTION_INITIALIZING);
+	break;
+      case TACTag.NEXT_QUOTE_TIME:
+	nextQuoteTime = 1000 * parser.getValueAsLong(0);
+	break;
       }
     }
-
-    try {
-      agent.quoteUpdated(quote);
-    } catch (Exception e) {
-      log.log(Level.SEVERE,
-	      "agent could not handle quoteUpdated for " + quote, e);
-    }
-
-    try {
-      if (isLastAuction(quote)) {
-	agent.quoteUpdated(getAuctionCategory(auction));
+    int changes =
+      quote.update(askPrice, bidPrice, hqw, auctionStatus, nextQuoteTime,
+		   bid);
+    quoteHistory[auction].add(getServerTime(), askPrice, bidPrice, hqw,
+			      auctionStatus);
+    if (quoteScheduler != null) {
+      quoteScheduled(quote, msg.getResponseTime());
+    }
+
+    // The snapshot is published once all quotes in the category have
+    // been updated
+    boolean isLast = isLastAuction(quote);
+    if (changes != 0) {
+      snapshotChanged();
+      long mask;
+      do {
+	mask = changedQuotes.get();
+      } while (!changedQuotes.compareAndSet(mask, mask | (1L << auction)));
+    }
+    if (changes != 0 || !quoteChangesOnly) {
+      dispatcher.quoteUpdated(quote);
+    }
+    if (isLast) {
+      publishChangedSnapshot();
+      int category = getAuctionCategory(auction);
+      long categoryMask = getCategoryMask(category);
+      long mask;
+      do {
+	mask = changedQuotes.get();
+      } while (!changedQuotes.compareAndSet(mask, mask & ~categoryMask));
+      mask &= categoryMask;
+      if (mask != 0 || !quoteChangesOnly) {
+	dispatcher.quoteUpdated(category);
+      }
+      if (mask != 0) {
+	dispatcher.quotesChanged(mask);
       }
-    } catch (Exception e) {
-      log.log(Level.SEVERE,
-	      "agent could not handle quoteUpdated for " + quote, e);
     }
     if (quote.isAuctionClosed()
 	&& (oldAuctionStatus != Quote.AUCTION_CLOSED)) {
-      requestTransactions(OP_CLOSE_AUCTION + auction);
+      requestTransactions(new TransactionReconciler
+			  .Action(TransactionReconciler.CLOSE_AUCTION,
+				  auction));
     }
     if (tableModel != null) {
       tableModel.fireTableRowsUpdated(auction, auction);
     }
   }
 
+  // Plans the next request of the quote category from the clear time
+  // reported in the quote
+  private void quoteScheduled(Quote quote, long responseTime) {
+    quoteScheduler.responseReceived(responseTime);
+    int category = getAuctionCategory(quote.getAuction());
+    long nextQuoteTime = quote.getNextQuoteTime();
+    if (category != CAT_ENTERTAINMENT && !quote.isAuctionClosed()
+	&& nextQuoteTime > getServerTime()) {
+      if (category == CAT_HOTEL) {
+	quoteScheduler.quoteInTime();
+      }
+      scheduleQuotes(category, nextQuoteTime);
+    }
+  }
+
   private boolean isLastAuction(Quote quote) {
     int auction = quote.getAuction();
     int category = getAuctionCategory(auction);
@@ -1467,8 +2133,16 @@ public class TACAgent implements Task, TACMessageReceiver {
 	       (serverTime = getServerTime()) > quoteTime) {
       lastHotelAuction = auction;
       log.fine("rerequesting hotel quote for auction " + auction);
-      TimeDispatcher.getDefault()
-	.addTask(serverTime + 1000, quote, connection, this);
+      // Only the latest re-request for an auction is kept
+      TaskHandle task = quoteTasks[auction];
+      if (task != null) {
+	task.cancel();
+      }
+      long delay = quoteScheduler != null
+	? quoteScheduler.quoteTooEarly()
+	: 1000;
+      quoteTasks[auction] = TimeDispatcher.getDefault()
+	.addTask(serverTime + delay, quote, connection, this, timers);
       return false;
     } else {
       return auction == lastHotelAuction;
@@ -1476,6 +2150,7 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private void handleBidInfo(TACMessage msg) {
+    TACParser parser = msg.getParser();
     Bid bid = (Bid) msg.getUserData();
     String bidHash = null;
     String bidString = null;
@@ -1485,22 +2160,30 @@ public class TACAgent implements Task, TACMessageReceiver {
     long timeProcessed = 0L;
     int commandStatus = NO_ERROR;
 
-    while (msg.nextTag()) {
-      if (msg.isTag("bidString")) {
-	bidString = msg.getValue();
-      } else if (msg.isTag("bidHash")) {
-	bidHash = msg.getValue();
-      } else if (msg.isTag("rejectReason")) {
-	rejectReason = Bid.mapRejectReason(msg.getValueAsInt(rejectReason));
-      } else if (msg.isTag("processingState")) {
+    while (parser.nextTag()) {
+      switch (parser.getTagID()) {
+      case TACTag.BID_STRING:
+	bidString = parser.getValue();
+	break;
+      case TACTag.BID_HASH:
+	bidHash = parser.getValue();
+	break;
+      case TACTag.REJECT_REASON:
+	rejectReason = Bid.mapRejectReason(parser.getValueAsInt(rejectReason));
+	break;
+      case TACTag.PROCESSING_STATE:
 	processingState =
-	  Bid.mapProcessingState(msg.getValueAsInt(processingState));
-      } else if (msg.isTag("timeClosed")) {
-	timeClosed = msg.getValueAsLong(0);
-      } else if (msg.isTag("timeProcessed")) {
-	timeProcessed = msg.getValueAsLong(0);
-      } else if (msg.isTag("commandStatus")) {
-	commandStatus = msg.getValueAsInt(NO_ERROR);
+	  Bid.mapProcessingState(parser.getValueAsInt(processingState));
+	break;
+      case TACTag.TIME_CLOSED:
+	timeClosed = parser.getValueAsLong(0);
+	break;
+      case TACTag.TIME_PROCESSED:
+	timeProcessed = parser.getValueAsLong(0);
+	break;
+      case TACTag.COMMAND_STATUS:
+	commandStatus = parser.getValueAsInt(NO_ERROR);
+	break;
       }
     }
 
@@ -1539,79 +2222,99 @@ public class TACAgent implements Task, TACMessageReceiver {
 	int clearID = this.clearID++;
 	log.finest("Requesting transactions for bid " + bid.getID()
 		   + " ClearID=" + clearID);
-	requestTransactions(OP_CLEAR_BID + (clearID << 5) + auction);
+	requestTransactions(new TransactionReconciler
+			    .Action(TransactionReconciler.CLEAR_BID,
+				    auction, clearID));
 	bid.setBidTransacted(clearID, bidHash, bidString);
       } else {
-	try {
-	  agent.bidUpdated(bid);
-	} catch (Exception e) {
-	  log.log(Level.SEVERE, "agent could not handle bidUpdated", e);
-	}
+	dispatcher.bidUpdated(bid);
       }
       int row = bid.getAuction();
+      journalBid(row);
       if (tableModel != null) {
 	tableModel.fireTableRowsUpdated(row, row);
       }
     }
   }
 
-  private synchronized void clearBid(int transID) {
-    int auction = transID & 31;
-    int clearID = transID >> 5;
+  private void clearBid(int auction, int clearID) {
+    Bid updatedBid = null;
 
-    Bid activeBid = getBid(auction);
-    while (activeBid != null) {
-      if (activeBid.getClearID() == clearID) {
-	String bidString = activeBid.getClearString();
-	Bid newBid = new Bid(activeBid, bidString, activeBid.getClearHash());
-	boolean isActiveBid = activeBid == getBid(auction);
-	if (bidString.equals(Bid.EMPTY_BID_STRING)) {
-	  removeBid(auction, activeBid);
-	} else {
-	  changeBid(auction, activeBid, newBid);
-	}
-	if (isActiveBid) {
-	  try {
-	    agent.bidUpdated(newBid);
-	  } catch (Exception e) {
-	    log.log(Level.SEVERE, "agent could not handle bidUpdated", e);
+    lockBid(auction);
+    try {
+      Bid activeBid = getBid(auction);
+      while (activeBid != null) {
+	if (activeBid.getClearID() == clearID) {
+	  String bidString = activeBid.getClearString();
+	  Bid newBid =
+	    new Bid(activeBid, bidString, activeBid.getClearHash());
+	  if (activeBid == getBid(auction)) {
+	    updatedBid = newBid;
 	  }
-	  if (tableModel != null) {
-	    tableModel.fireTableRowsUpdated(auction, auction);
+	  if (bidString.equals(Bid.EMPTY_BID_STRING)) {
+	    removeBid(auction, activeBid);
+	  } else {
+	    changeBid(auction, activeBid, newBid);
 	  }
+	  activeBid = null;
+
+	} else {
+	  activeBid = activeBid.getReplacing();
 	}
-	activeBid = null;
+      }
+    } finally {
+      bidLocks[auction].unlock();
+    }
 
-      } else {
-	activeBid = activeBid.getReplacing();
+    // The agent is called without holding the lock
+    if (updatedBid != null) {
+      publishSnapshot();
+      journalBid(auction);
+      dispatcher.bidUpdated(updatedBid);
+      if (tableModel != null) {
+	tableModel.fireTableRowsUpdated(auction, auction);
       }
     }
   }
 
-  private synchronized void recoverBid(Bid bid) {
+  private void recoverBid(Bid bid) {
     int auction = bid.getAuction();
-    if (bids[auction] != null) {
+    boolean isRecovered;
+    lockBid(auction);
+    try {
+      isRecovered = bids.compareAndSet(auction, null, bid);
+    } finally {
+      bidLocks[auction].unlock();
+    }
+    if (!isRecovered) {
       log.warning("bid already exist for auction "
 		  + getAuctionTypeAsString(auction)
 		  + " when recovering bid");
     } else {
-      bids[auction] = bid;
+      publishSnapshot();
       log.finer("bid " + bid.getID() + " for "
 		+ getAuctionTypeAsString(auction) + " has been recovered");
     }
   }
 
-  private synchronized void updateBid(Bid bid) {
+  private void updateBid(Bid bid) {
     int auction = bid.getAuction();
-    bid.setReplacing(bids[auction]);
-    bids[auction] = bid;
+    lockBid(auction);
+    try {
+      bid.setReplacing(getBid(auction));
+      bids.set(auction, bid);
+    } finally {
+      bidLocks[auction].unlock();
+    }
+    publishSnapshot();
   }
 
-  private synchronized void changeBid(int auction, Bid bid, Bid newBid) {
+  // Must be called with the lock for the auction held
+  private void changeBid(int auction, Bid bid, Bid newBid) {
     Bid activeBid = getBid(auction);
     if (activeBid != null) {
       if (activeBid.same(bid)) {
-	bids[auction] = newBid;
+	bids.set(auction, newBid);
       } else {
 	Bid child;
 	while ((child = activeBid.getReplacing()) != null && !child.same(bid))
@@ -1629,15 +2332,30 @@ public class TACAgent implements Task, TACMessageReceiver {
     changeBid(auction, bid, null);
   }
 
+  // Locks the bid state of the auction and counts the times the lock
+  // was held by another thread
+  private void lockBid(int auction) {
+    lock(bidLocks[auction], auction);
+  }
+
+  private void lock(ReentrantLock lock, int index) {
+    if (!lock.tryLock()) {
+      lockContention.incrementAndGet(index);
+      lock.lock();
+    }
+  }
+
   private void handleGetAuctions(TACMessage msg) {
-    while (msg.nextTag()) {
-      if (msg.isTag("auctionIDs")) {
+    TACParser parser = msg.getParser();
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.AUCTION_IDS) {
 	int cat = -1;
 	int type = -1;
 	int day = -1;
 	int id = -1;
-	while (msg.nextTag() && !msg.isTag("/auctionIDs")) {
-	  if (msg.isTag("/TACAuctionTuple")) {
+	while (parser.nextTag()
+	       && parser.getTagID() != (TACTag.END | TACTag.AUCTION_IDS)) {
+	  if (parser.getTagID() == (TACTag.END | TACTag.TAC_AUCTION_TUPLE)) {
 	    if (cat < 0 || id < 0) {
 	      // Missing information about this auction.
 	      // What should we do here??? FIX THIS!!!
@@ -1649,18 +2367,18 @@ public class TACAgent implements Task, TACMessageReceiver {
 	    } else {
 	      addAuction(cat, type, day, id);
 	    }
-	  } else if (msg.isTag("type")) {
-	    type = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("day")) {
-	    day = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("category")) {
-	    cat = getAuctionCategory(msg.getValue());
-	  } else if (msg.isTag("ID")) {
-	    id = msg.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.TYPE) {
+	    type = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.DAY) {
+	    day = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.CATEGORY) {
+	    cat = getAuctionCategory(parser.getValue());
+	  } else if (parser.getTagID() == TACTag.ID) {
+	    id = parser.getValueAsInt(-1);
 	  }
 	}
-      } else if (msg.isTag("commandStatus")) {
-	int status = mapCommandStatus(msg.getValueAsInt(NO_ERROR));
+      } else if (parser.getTagID() == TACTag.COMMAND_STATUS) {
+	int status = mapCommandStatus(parser.getValueAsInt(NO_ERROR));
 	if (status == GAME_FUTURE) {
 	  // Wait a second and retry!
 	  try {
@@ -1683,7 +2401,10 @@ public class TACAgent implements Task, TACMessageReceiver {
 
     // Check if the agent already have any bids in the game i.e.
     // if the agent has been restarted during a game
-    if ((getServerTime() - startTime) > 2500) {
+    GameJournal journal = this.journal;
+    if (journal != null && journal.hasRecords()) {
+      restoreJournal(journal);
+    } else if ((getServerTime() - startTime) > 2500) {
       msg = new TACMessage("recoverBidIDs");
       sendMessage(msg, this);
     }
@@ -1699,27 +2420,29 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private void handleGetConstants(TACMessage msg) {
+    TACParser parser = msg.getParser();
     // The status code will be NOT_SUPPORTED and the message will contain
     // no other fields if the server did not support this command
     // => does not need to check it
-    while (msg.nextTag()) {
-      if (msg.isTag("gameLength")) {
-	int len = msg.getValueAsInt(-1);
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.GAME_LENGTH) {
+	int len = parser.getValueAsInt(-1);
 	if (len > 0) {
 	  this.gameLength = len * 1000;
 	}
-      } else if (msg.isTag("gameType")) {
-	this.playingGameType = msg.getValue();
+      } else if (parser.getTagID() == TACTag.GAME_TYPE) {
+	this.playingGameType = parser.getValue();
       }
     }
   }
 
   private void handleGetGame(TACMessage msg) {
+    TACParser parser = msg.getParser();
     boolean gameRunning = true;
 
-    while (msg.nextTag()) {
-      if (msg.isTag("clientPreferences")) {
-	msg.nextTag(); // Ignore list...
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.CLIENT_PREFERENCES) {
+	parser.nextTag(); // Ignore list...
 	int client = -1;
 	int arr = 0;
 	int dep = 0;
@@ -1727,48 +2450,53 @@ public class TACAgent implements Task, TACMessageReceiver {
 	int type = -1;
 	int[] events = new int[3];
 	int price = 0;
-	while (msg.nextTag() && !msg.isTag("/clientPreferences")) {
-	  if (msg.isTag("/clientPrefTuple")) {
+	while (parser.nextTag() && parser.getTagID()
+	       != (TACTag.END | TACTag.CLIENT_PREFERENCES)) {
+	  if (parser.getTagID() == (TACTag.END | TACTag.CLIENT_PREF_TUPLE)) {
 	    if (client != -1) {
 	      setClient(client - 1, arr, dep, hotel, events);
 	    }
-	  } else if (msg.isTag("client")) {
-	    client = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("arrival")) {
-	    arr = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("departure")) {
-	    dep = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("hotel")) {
-	    hotel = (int) msg.getValueAsFloat(-1f);
-	  } else if (msg.isTag("ticketPreferences")) {
-	    while (msg.nextTag() && !msg.isTag("/ticketPreferences")) {
-	      if (msg.isTag("type")) {
-		type = msg.getValueAsInt(-1);
-	      } else if (msg.isTag("price")) {
-		price = (int) msg.getValueAsFloat(-1f);
-	      } else if (msg.isTag("/typePriceTuple")) {
+	  } else if (parser.getTagID() == TACTag.CLIENT) {
+	    client = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.ARRIVAL) {
+	    arr = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.DEPARTURE) {
+	    dep = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.HOTEL) {
+	    hotel = (int) parser.getValueAsFloat(-1f);
+	  } else if (parser.getTagID() == TACTag.TICKET_PREFERENCES) {
+	    while (parser.nextTag() && parser.getTagID()
+		   != (TACTag.END | TACTag.TICKET_PREFERENCES)) {
+	      if (parser.getTagID() == TACTag.TYPE) {
+		type = parser.getValueAsInt(-1);
+	      } else if (parser.getTagID() == TACTag.PRICE) {
+		price = (int) parser.getValueAsFloat(-1f);
+	      } else if (parser.getTagID() == 
+			   (TACTag.END | TACTag.TYPE_PRICE_TUPLE)) {
 		events[type - 1] = price;
 	      }
 	    }
 	  }
 	}
-      } else if (msg.isTag("ticketEndowments")) {
+      } else if (parser.getTagID() == TACTag.TICKET_ENDOWMENTS) {
 	int day = -1;
 	int type = -1;
 	int quantity = -1;
-	while (msg.nextTag() && !msg.isTag("/ticketEndowments")) {
-	  if (msg.isTag("/ticketEndowmentTuple")) {
+	while (parser.nextTag() && parser.getTagID()
+	       != (TACTag.END | TACTag.TICKET_ENDOWMENTS)) {
+	  if (parser.getTagID()
+	      == (TACTag.END | TACTag.TICKET_ENDOWMENT_TUPLE)) {
 	    addOwn(CAT_ENTERTAINMENT, type, day, quantity);
-	  } else if (msg.isTag("type")) {
-	    type = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("day")) {
-	    day = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("quantity")) {
-	    quantity = msg.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.TYPE) {
+	    type = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.DAY) {
+	    day = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.QUANTITY) {
+	    quantity = parser.getValueAsInt(-1);
 	  }
 	}
-      } else if (msg.isTag("commandStatus")) {
-	int status = msg.getValueAsInt(NO_ERROR);
+      } else if (parser.getTagID() == TACTag.COMMAND_STATUS) {
+	int status = parser.getValueAsInt(NO_ERROR);
 	if (status != NO_ERROR) {
 	  if (status == GAME_COMPLETE) {
 	    log.fine("handleGetGame: Game completed, ending");
@@ -1787,21 +2515,23 @@ public class TACAgent implements Task, TACMessageReceiver {
     if (gameRunning) {
       TimeDispatcher.getDefault()
 	.addTask(startTime + 1000 + gameLength, "gameEnds",
-		 connection, this);
+		 connection, this, timers);
     }
   }
 
   private void handleRecoverBidIDs(TACMessage msg) {
-    while (msg.nextTag()) {
-      if (msg.isTag("auctionBidIDsTuple")) {
+    TACParser parser = msg.getParser();
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.AUCTION_BID_IDS_TUPLE) {
 	int auctionID = -1;
 	int bidID = -1;
-	while (msg.nextTag()) {
-	  if (msg.isTag("auctionID")) {
-	    auctionID = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("bidID")) {
-	    bidID = msg.getValueAsInt(-1);
-	  } else if (msg.isTag("/auctionBidIDsTuple")) {
+	while (parser.nextTag()) {
+	  if (parser.getTagID() == TACTag.AUCTION_ID) {
+	    auctionID = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == TACTag.BID_ID) {
+	    bidID = parser.getValueAsInt(-1);
+	  } else if (parser.getTagID() == 
+		       (TACTag.END | TACTag.AUCTION_BID_IDS_TUPLE)) {
 	    if (auctionID != -1 && bidID != -1) {
 	      int auction = getAuctionPos(auctionID);
 	      Bid bid = new Bid(auction);
@@ -1818,8 +2548,8 @@ public class TACAgent implements Task, TACMessageReceiver {
 	    break;
 	  }
 	}
-      } else if (msg.isTag("commandStatus")) {
-	int status = msg.getValueAsInt(NO_ERROR);
+      } else if (parser.getTagID() == TACTag.COMMAND_STATUS) {
+	int status = parser.getValueAsInt(NO_ERROR);
 	if (status != NO_ERROR) {
 	  log.severe("could not recover bids for game "
 		     + nextGameID + ": status="
@@ -1831,7 +2561,11 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private void addOwn(int category, int type, int day, int quantity) {
     int pos = getAuctionFor(category, type, day);
-    owns[pos] += quantity;
+    synchronized (snapshotLock) {
+      owns[pos] += quantity;
+      ledger.addEndowment(pos, quantity);
+      snapshotChanged();
+    }
   }
 
   private void addAuction(int category, int type, int day, int id) {
@@ -1863,6 +2597,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 
 
   private void handleNextGame(TACMessage msg) {
+    TACParser parser = msg.getParser();
     TACConnection connection = this.connection;
     if (connection == null) return;
 
@@ -1870,13 +2605,13 @@ public class TACAgent implements Task, TACMessageReceiver {
     int gameID = -1;
     long startTime = 0L;
 
-    while (msg.nextTag()) {
-      if (msg.isTag("gameID")) {
-	gameID = msg.getValueAsInt(-1);
-      } else if (msg.isTag("startTime")) {
-	startTime = msg.getValueAsLong(-1);
-      } else if (msg.isTag("commandStatus")) {
-	status = mapCommandStatus(msg.getValueAsInt(NO_ERROR));
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.GAME_ID) {
+	gameID = parser.getValueAsInt(-1);
+      } else if (parser.getTagID() == TACTag.START_TIME) {
+	startTime = parser.getValueAsLong(-1);
+      } else if (parser.getTagID() == TACTag.COMMAND_STATUS) {
+	status = mapCommandStatus(parser.getValueAsInt(NO_ERROR));
       }
     }
 
@@ -1908,7 +2643,8 @@ public class TACAgent implements Task, TACMessageReceiver {
 	  reset(sleepTime < delay ? sleepTime : delay, connection);
 	} else {
 	  TimeDispatcher.getDefault()
-	    .addTask(nextGameTime + 1000, "gameStarts", connection, this);
+	    .addTask(nextGameTime + 1000, "gameStarts", connection, this,
+		     timers);
 	}
       }
     } else if (status != NO_ERROR) {
@@ -1920,9 +2656,10 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private void handleServerTime(TACMessage msg) {
-    while (msg.nextTag()) {
-      if (msg.isTag("time")) {
-	long serverTime = msg.getValueAsLong(-1) * 1000;
+    TACParser parser = msg.getParser();
+    while (parser.nextTag()) {
+      if (parser.getTagID() == TACTag.TIME) {
+	long serverTime = parser.getValueAsLong(-1) * 1000;
 	long time = System.currentTimeMillis();
 	timeDiff = time - serverTime;
 	log.fine("Setting server time diff to " + (timeDiff / 1000)
@@ -2025,6 +2762,114 @@ public class TACAgent implements Task, TACMessageReceiver {
 
 
 
+  // -------------------------------------------------------------------
+  // Game journal
+  // -------------------------------------------------------------------
+
+  private void openJournal(int gameID) {
+    closeJournal();
+    if (useJournal && gameID >= 0) {
+      File file = new File(childLogPrefix + "_GAME_" + gameID + ".journal");
+      try {
+	journal = new GameJournal(file, NO_AUCTIONS);
+      } catch (IOException e) {
+	log.log(Level.WARNING, "could not open journal " + file, e);
+      }
+    }
+  }
+
+  private void closeJournal() {
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      this.journal = null;
+      journal.close();
+    }
+  }
+
+  private void deleteJournal() {
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      this.journal = null;
+      journal.close();
+      File file = journal.getFile();
+      if (!file.delete()) {
+	log.warning("could not delete journal " + file);
+      }
+    }
+  }
+
+  // Journals the current active bid in the auction
+  private void journalBid(int auction) {
+    GameJournal journal = this.journal;
+    if (journal != null) {
+      Bid bid = getBid(auction);
+      // Bids not yet accepted by the server are journaled when their
+      // bid id is known
+      while (bid != null && bid.getID() == Bid.NO_ID) {
+	bid = bid.getReplacing();
+      }
+      journal.bidChanged(auction, bid);
+    }
+  }
+
+  // Restores the state from an earlier run of the agent in this game.
+  // Only transactions after the journal checkpoint and information
+  // about bids not yet confirmed when journaled are requested from
+  // the server.
+  private void restoreJournal(GameJournal journal) {
+    int checkpoint = journal.getCheckpoint();
+    int restored = 0;
+    synchronized (snapshotLock) {
+      for (int i = 0, n = journal.getTransactionCount(); i < n; i++) {
+	if (journal.getTransactionID(i) <= checkpoint) {
+	  int auction = journal.getTransactionAuction(i);
+	  int quantity = journal.getTransactionQuantity(i);
+	  float price = journal.getTransactionPrice(i);
+	  owns[auction] += quantity;
+	  costs[auction] += quantity * price;
+	  ledger.addTransaction(auction, quantity, price);
+	  restored++;
+	}
+      }
+      for (int i = 0; i < NO_AUCTIONS; i++) {
+	allocate[i] = journal.getAllocation(i);
+      }
+      snapshotChanged();
+    }
+    if (checkpoint > earliestTransID) {
+      earliestTransID = checkpoint;
+    }
+
+    for (int i = 0; i < NO_AUCTIONS; i++) {
+      int bidID = journal.getBidID(i);
+      if (bidID != Bid.NO_ID) {
+	Bid bid = new Bid(i);
+	bid.setID(bidID);
+	String bidHash = journal.getBidHash(i);
+	if (bidHash != null && journal.getBidState(i) != Bid.UNPROCESSED) {
+	  bid.setProcessingState(journal.getBidState(i));
+	  bid.setBidHash(bidHash);
+	  bid.setBidString(journal.getBidString(i));
+	  recoverBid(bid);
+	} else {
+	  // Not confirmed by the server when journaled
+	  TACMessage msg = new TACMessage("bidInfo");
+	  msg.setParameter("bidID", bidID);
+	  msg.setUserData(bid);
+	  sendMessage(msg, this);
+	}
+      }
+    }
+    publishSnapshot();
+    if (tableModel != null) {
+      tableModel.fireTableDataChanged();
+    }
+    log.fine("restored " + restored + " transactions and bids from "
+	     + journal.getFile() + " (earliest transaction "
+	     + earliestTransID + ')');
+  }
+
+
   // -------------------------------------------------------------------
   //
   // -------------------------------------------------------------------
@@ -2061,12 +2906,12 @@ public class TACAgent implements Task, TACMessageReceiver {
       case 4:
 	return quotes[row].getAuctionStatusAsString();
       case 5:
-	Bid bd = bids[row];
+	Bid bd = getBid(row);
 	return (bd != null)
 	  ? bd.getProcessingStateAsString()
 	  : "no bid";
       case 6:
-	Bid bid = bids[row];
+	Bid bid = getBid(row);
 	if (bid != null) {
 	  return bid.getBidString();
 	}
@@ -2128,6 +2973,22 @@ public class TACAgent implements Task, TACMessageReceiver {
 //       + "    -gameType <type>          set the game type to play\n"
       + "    -exitAfterGames <games>   set the number of games to play\n"
       + "    -connection <className>   set the TAC connection handler\n"
+      + "    -tcpNoDelay <true|false>  disable Nagle's algorithm on sockets\n"
+      + "    -flushDelay <millis>      set max delay for batched messages\n"
+      + "    -httpConnections <n>      set parallel requests for HTTP\n"
+      + "    -timerThreads <n>         set worker threads for timer tasks\n"
+      + "    -timerQueue <heap|wheel>  set how timer tasks are scheduled\n"
+      + "    -quotePolling <mode>      fixed or adaptive quote requests\n"
+      + "    -quoteChangesOnly <bool>  only call agent for changed quotes\n"
+      + "    -requestRate <n>          limit requests per second\n"
+      + "    -requestBurst <n>         set requests to send at once\n"
+      + "    -requestMaxWait <ms>      bound wait of low priority requests\n"
+      + "    -transactionTimeout <ms>  set transaction request timeout\n"
+      + "    -journal <true|false>     journal game state for restarts\n"
+      + "    -callbackMode <mode>      inline, single, auction or ring\n"
+      + "    -callbackThreads <n>      set threads for auction callbacks\n"
+      + "    -ringSize <n>             set number of events in ring mode\n"
+      + "    -coalesceQuotes <bool>    drop quote callbacks not yet called\n"
       + "    -consoleLogLevel <level>  set the console log level\n"
       + "    -fileLogLevel <level>     set the file log level\n"
       + "    -logPrefix <prefix>       set the prefix to log files\n"
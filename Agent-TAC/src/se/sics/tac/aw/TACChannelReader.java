@@ -0,0 +1,257 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TACChannelReader
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A connection to the TAC server using a SocketChannel. Received
+ *   data is read into a direct buffer and scanned for the '\0'
+ *   delimiter in place. Each complete frame is copied once into its
+ *   own byte array which is then parsed in place by the message.
+ *   Partial frames are kept in the buffer until the rest arrives.
+ *
+ *   Replies are matched with the sent messages in FIFO order in the
+ *   same way as TACReader.
+ *
+ *   Use with the option "-connection se.sics.tac.aw.TACChannelReader".
+ */
+
+package se.sics.tac.aw;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+public class TACChannelReader extends TACConnection implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger(TACChannelReader.class.getName());
+
+  private final static int BUFFER_SIZE = 16384;
+
+  private volatile SocketChannel channel;
+  private TACWriteBuffer writer;
+
+  // Only used by the writer
+  private ByteBuffer outBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  private ArrayQueue queue = new ArrayQueue();
+  private boolean disconnected = true;
+
+  protected void init() {
+    doConnect();
+  }
+
+  public boolean isConnected() {
+    return !disconnected;
+  }
+
+  public void disconnect() {
+    disconnected = true;
+    SocketChannel channel = this.channel;
+    if (channel != null) {
+      try {
+	channel.close();
+      } catch (Exception e) {
+	log.log(Level.SEVERE,"could not close connection:", e);
+      } finally {
+	this.channel = null;
+      }
+    }
+  }
+
+  public synchronized void sendMessage(TACMessage msg) throws IOException {
+    if (disconnected) {
+      throw new IOException("Disconnected from server");
+    }
+
+    addMessage(msg);
+    writer.write(msg);
+  }
+
+  public void beginBatch() {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.beginBatch();
+    }
+  }
+
+  public void endBatch() throws IOException {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.endBatch();
+    }
+  }
+
+  public long getMessageCount() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getMessageCount() : 0L;
+  }
+
+  public long getWriteCount() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getWriteCount() : 0L;
+  }
+
+  public LatencyHistogram getBatchWriteCounts() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getBatchWriteCounts() : null;
+  }
+
+  public void resetStatistics() {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.resetStatistics();
+    }
+  }
+
+  private void writeData(byte[] data, int offset, int length)
+    throws IOException {
+    // The channel is cleared when disconnecting without the write lock
+    SocketChannel channel = this.channel;
+    if (channel == null) {
+      throw new IOException("Disconnected from server");
+    }
+    ByteBuffer out = this.outBuffer;
+    if (length > out.capacity()) {
+      out = this.outBuffer = ByteBuffer.allocateDirect(length * 2);
+    }
+    // Buffer methods are called through Buffer to stay compatible
+    // with the covariant overrides in newer Java versions
+    ((Buffer) out).clear();
+    out.put(data, offset, length);
+    ((Buffer) out).flip();
+    while (out.hasRemaining()) {
+      channel.write(out);
+    }
+  }
+
+  public void run() {
+    SocketChannel channel = this.channel;
+    try {
+      ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      // Number of bytes at the start of the buffer already scanned
+      int scanned = 0;
+
+      while (!disconnected && channel.read(in) != -1) {
+	int dataEnd = in.position();
+	int frameStart = 0;
+	for (int i = scanned; i < dataEnd; i++) {
+	  if (in.get(i) == 0) {
+	    // Each message gets its own copy of the data since the
+	    // message is parsed in place
+	    byte[] msg = new byte[i - frameStart];
+	    ((Buffer) in).position(frameStart);
+	    in.get(msg);
+	    handleMessage(msg);
+	    frameStart = i + 1;
+	  }
+	}
+
+	// Move any partial frame to the beginning of the buffer
+	((Buffer) in).limit(dataEnd);
+	((Buffer) in).position(frameStart);
+	in.compact();
+	scanned = dataEnd - frameStart;
+
+	if (!in.hasRemaining()) {
+	  // The partial frame fills the buffer
+	  ByteBuffer tmp = ByteBuffer.allocateDirect(in.capacity() * 2);
+	  ((Buffer) in).flip();
+	  tmp.put(in);
+	  in = tmp;
+	}
+      }
+    } catch (Throwable e) {
+      if (!disconnected) {
+	log.log(Level.SEVERE, "could not read:", e);
+      }
+    } finally {
+      agent.reset(0, this);
+    }
+  }
+
+  // Synchronized to ensure that no one else sends a message before
+  // authentication of this connection!
+  private synchronized void doConnect() {
+    try {
+      String host = agent.getHost();
+      int port = agent.getPort();
+      log.fine("Connecting to server " + host + ':' + port);
+      channel = SocketChannel.open(new InetSocketAddress(host, port));
+      channel.configureBlocking(true);
+      channel.socket().setTcpNoDelay(agent.isTcpNoDelay());
+      writer = new TACWriteBuffer(agent.getFlushDelay()) {
+	  protected void writeData(byte[] data, int offset, int length)
+	    throws IOException {
+	    TACChannelReader.this.writeData(data, offset, length);
+	  }
+
+	  protected void flushFailed(IOException e) {
+	    log.log(Level.SEVERE, "could not write:", e);
+	    disconnect();
+	  }
+	};
+      disconnected = false;
+      new Thread(this, "channel").start();
+
+      // Automatically login! -> give an auth to the agent...
+      TACMessage msg = new TACMessage("auth");
+      msg.setParameter("userName", agent.getUser());
+      msg.setParameter("userPW", agent.getPassword());
+      msg.setMessageReceiver(agent);
+      sendMessage(msg);
+
+    } catch (Exception e) {
+      disconnected = true;
+      log.log(Level.SEVERE, "connection to server failed:", e);
+      channel = null;
+    }
+  }
+
+  private synchronized void addMessage(TACMessage msg) {
+    queue.add(msg);
+  }
+
+  private synchronized TACMessage getMessage() {
+    if (queue.isEmpty()) {
+      return null;
+    }
+    return (TACMessage) queue.remove(0);
+  }
+
+  private void handleMessage(byte[] msg) {
+    TACMessage tacMsg = getMessage();
+    if (tacMsg == null) {
+      throw new IllegalStateException("received unexpected message: "
+				      + new TACParser(msg, 0, msg.length));
+    }
+    if (!disconnected) {
+      tacMsg.setReceivedMessage(msg, 0, msg.length);
+      tacMsg.deliverMessage();
+    }
+  }
+
+} // TACChannelReader
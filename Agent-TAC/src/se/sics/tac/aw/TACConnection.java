@@ -45,4 +45,50 @@ public abstract class TACConnection {
     msg.setMessageReceiver(rcv);
     sendMessage(msg);
   }
+
+  /**
+   * Marks the start of a burst of messages. Messages sent before the
+   * matching call to endBatch() may be written to the server
+   * together. Batches can be nested. The default implementation does
+   * nothing.
+   */
+  public void beginBatch() {
+  }
+
+  /**
+   * Marks the end of a burst of messages and sends any messages still
+   * held back by this connection.
+   */
+  public void endBatch() throws IOException {
+  }
+
+  /**
+   * Returns the number of messages written by this connection.
+   */
+  public long getMessageCount() {
+    return 0L;
+  }
+
+  /**
+   * Returns the number of write operations used by this connection to
+   * send its messages.
+   */
+  public long getWriteCount() {
+    return 0L;
+  }
+
+  /**
+   * Returns the histogram of the number of writes used per batch of
+   * messages or null if this connection does not batch messages.
+   */
+  public LatencyHistogram getBatchWriteCounts() {
+    return null;
+  }
+
+  /**
+   * Resets the message and write counts, for example when a new game
+   * starts.
+   */
+  public void resetStatistics() {
+  }
 }
@@ -0,0 +1,296 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TACEncoder
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Writes outgoing TAC messages as bytes into a reusable buffer. Each
+ *   connection owns one encoder and the buffer is only grown, never
+ *   reallocated per message. Start and end tags of the known protocol
+ *   tags are encoded once when the class is loaded and numeric
+ *   parameters are formatted directly into the buffer.
+ *
+ *   An encoder is not thread safe.
+ */
+
+package se.sics.tac.aw;
+import java.nio.charset.Charset;
+
+public class TACEncoder {
+
+  private final static Charset CHARSET = Charset.forName("UTF-8");
+
+  private final static float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f
+  };
+
+  // Largest integral float that Float.toString() writes without exponent
+  private final static float MAX_PLAIN_FLOAT = 1e7f;
+
+  /** Pre-encoded start and end tags indexed by tag id */
+  private final static EncodedTag[] encodedTags = new EncodedTag[TACTag.END];
+
+  static {
+    for (int id = 1; id < TACTag.END; id++) {
+      String name = TACTag.getTagName(id);
+      if (name != null) {
+	encodedTags[id] = new EncodedTag(name);
+      }
+    }
+  }
+
+  private byte[] buffer;
+  private int length;
+
+  public TACEncoder() {
+    this(256);
+  }
+
+  public TACEncoder(int initialSize) {
+    buffer = new byte[initialSize];
+  }
+
+  public void reset() {
+    length = 0;
+  }
+
+  /**
+   * Returns the buffer holding the encoded data. The buffer is owned
+   * by the encoder and only valid until the next message is encoded.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Encodes the specified message, including the terminating '\0',
+   * into the buffer after clearing it and marks the message as sent.
+   *
+   * @return the number of bytes in the buffer
+   */
+  public int encode(TACMessage msg) {
+    length = 0;
+    append(msg);
+    ensureCapacity(1);
+    buffer[length++] = 0;
+    msg.messageSent();
+    return length;
+  }
+
+  /**
+   * Returns the textual form of the message without the terminating
+   * '\0'. Used for logging and for the string based API.
+   */
+  static String toMessageString(TACMessage msg) {
+    TACEncoder encoder = new TACEncoder();
+    encoder.append(msg);
+    return new String(encoder.buffer, 0, encoder.length, CHARSET);
+  }
+
+  private void append(TACMessage msg) {
+    EncodedTag type = getEncodedTag(msg.getType());
+    appendBytes(type.startTag);
+    for (int i = 0, n = msg.getParameterCount(); i < n; i++) {
+      EncodedTag tag = getEncodedTag(msg.getParameterName(i));
+      appendBytes(tag.startTag);
+      switch (msg.getParameterType(i)) {
+      case TACMessage.PARAM_INT:
+	appendInt(msg.getParameterInt(i));
+	break;
+      case TACMessage.PARAM_FLOAT:
+	appendFloat(msg.getParameterFloat(i));
+	break;
+      default:
+	appendString(msg.getParameterString(i));
+	break;
+      }
+      appendBytes(tag.endTag);
+    }
+    appendBytes(type.endTag);
+  }
+
+  private EncodedTag getEncodedTag(String name) {
+    // Only start tag names are used and they never have the END bit
+    int id = TACTag.lookup(name);
+    EncodedTag tag = id > 0 && id < TACTag.END ? encodedTags[id] : null;
+    return tag != null ? tag : new EncodedTag(name);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Formatting
+  // -------------------------------------------------------------------
+
+  private void ensureCapacity(int size) {
+    if (length + size > buffer.length) {
+      int newSize = buffer.length * 2;
+      if (newSize < length + size) {
+	newSize = length + size;
+      }
+      byte[] tmp = new byte[newSize];
+      System.arraycopy(buffer, 0, tmp, 0, length);
+      buffer = tmp;
+    }
+  }
+
+  private void appendBytes(byte[] data) {
+    int len = data.length;
+    ensureCapacity(len);
+    System.arraycopy(data, 0, buffer, length, len);
+    length += len;
+  }
+
+  private void appendString(String value) {
+    if (value == null) {
+      // Same as the string based encoding
+      value = "null";
+    }
+    int len = value.length();
+    ensureCapacity(len);
+    byte[] buffer = this.buffer;
+    int p = length;
+    for (int i = 0; i < len; i++) {
+      char c = value.charAt(i);
+      if (c >= 0x80) {
+	// Not plain ASCII
+	appendBytes(value.getBytes(CHARSET));
+	return;
+      }
+      buffer[p++] = (byte) c;
+    }
+    length = p;
+  }
+
+  private void appendInt(int value) {
+    if (value == Integer.MIN_VALUE) {
+      appendString(Integer.toString(value));
+      return;
+    }
+    ensureCapacity(11);
+    byte[] buffer = this.buffer;
+    if (value < 0) {
+      buffer[length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (int v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    int p = length + digits;
+    length = p;
+    do {
+      buffer[--p] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+  }
+
+  // Prices are written with at most four decimals when that gives the
+  // exact same float when parsed. Other values are formatted using
+  // Float.toString() as before.
+  private void appendFloat(float value) {
+    float abs = value < 0 ? -value : value;
+    if (abs < MAX_PLAIN_FLOAT && !(value == 0f && 1 / value < 0)) {
+      int integral = (int) abs;
+      if (integral == abs) {
+	if (value < 0) {
+	  appendByte('-');
+	}
+	appendInt(integral);
+	appendByte('.');
+	appendByte('0');
+	return;
+      }
+      if (abs >= 1e-3f) {
+	for (int k = 1, n = FLOAT_POW10.length; k < n; k++) {
+	  long scaled = Math.round((double) abs * FLOAT_POW10[k]);
+	  if (scaled < (1 << 24) && (float) scaled / FLOAT_POW10[k] == abs) {
+	    appendDecimal(value < 0, (int) scaled, k);
+	    return;
+	  }
+	}
+      }
+    }
+    appendString(Float.toString(value));
+  }
+
+  private void appendDecimal(boolean negative, int scaled, int decimals) {
+    ensureCapacity(12 + decimals);
+    byte[] buffer = this.buffer;
+    if (negative) {
+      buffer[length++] = '-';
+    }
+    int digits = 1;
+    for (int v = scaled; v >= 10; v /= 10) {
+      digits++;
+    }
+    if (digits <= decimals) {
+      // Value below one: need a leading zero
+      digits = decimals + 1;
+    }
+    int p = length + digits + 1;
+    length = p;
+    for (int i = 0; i < decimals; i++) {
+      buffer[--p] = (byte) ('0' + scaled % 10);
+      scaled /= 10;
+    }
+    buffer[--p] = '.';
+    do {
+      buffer[--p] = (byte) ('0' + scaled % 10);
+      scaled /= 10;
+    } while (scaled > 0);
+  }
+
+  private void appendByte(int b) {
+    ensureCapacity(1);
+    buffer[length++] = (byte) b;
+  }
+
+
+  // -------------------------------------------------------------------
+  // EncodedTag
+  // -------------------------------------------------------------------
+
+  private static class EncodedTag {
+
+    public final byte[] startTag;
+    public final byte[] endTag;
+
+    EncodedTag(String name) {
+      byte[] data = name.getBytes(CHARSET);
+      int len = data.length;
+      startTag = new byte[len + 2];
+      startTag[0] = '<';
+      System.arraycopy(data, 0, startTag, 1, len);
+      startTag[len + 1] = '>';
+
+      endTag = new byte[len + 3];
+      endTag[0] = '<';
+      endTag[1] = '/';
+      System.arraycopy(data, 0, endTag, 2, len);
+      endTag[len + 2] = '>';
+    }
+
+  } // EncodedTag
+
+} // TACEncoder
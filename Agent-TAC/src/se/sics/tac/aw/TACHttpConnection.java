@@ -34,21 +34,42 @@ import java.net.*;
 import java.util.ArrayList;
 import java.util.logging.*;
 
-public class TACHttpConnection extends TACConnection implements Runnable {
+public class TACHttpConnection extends TACConnection {
 
   private static final Logger log =
     Logger.getLogger(TACHttpConnection.class.getName());
 
   private URL url;
-  private ArrayList queue = new ArrayList();
+  private Lane[] lanes;
   private boolean disconnected = false;
 
+  // Replies are delivered one at a time even when several requests
+  // are in flight since the message receivers are not thread safe.
+  private final Object deliveryLock = new Object();
+
   protected void init() {
     try {
       url = new URL("http://" + agent.getHost() + ':' + agent.getPort() +
 		    '/' + agent.getUser() + '/' + agent.getPassword());
-      log.fine("Using HTTP TAC server at " + url);
-      new Thread(this).start();
+      int laneCount = agent.getHttpConnections();
+      if (laneCount < 1) {
+	laneCount = 1;
+      }
+      log.fine("Using HTTP TAC server at " + url + " with " + laneCount
+	       + " connection" + (laneCount > 1 ? "s" : ""));
+
+      // Allow the JVM to keep alive one connection per lane
+      String maxConnections = System.getProperty("http.maxConnections");
+      if (maxConnections == null
+	  || Integer.parseInt(maxConnections) < laneCount) {
+	System.setProperty("http.maxConnections", "" + laneCount);
+      }
+
+      lanes = new Lane[laneCount];
+      for (int i = 0; i < laneCount; i++) {
+	lanes[i] = new Lane();
+	new Thread(lanes[i], "http-" + i).start();
+      }
 
       TACMessage msg = new TACMessage("auth");
       msg.setParameter("userName", agent.getUser());
@@ -68,89 +89,109 @@ public class TACHttpConnection extends TACConnection implements Runnable {
     disconnected = true;
   }
 
-  public void run() {
-    while (true) {
-      TACMessage msg = getMessage();
-      boolean sent;
-      for (int errors = 0; !(sent = sendMsg(msg)) && errors < 3; errors++) {
-	log.warning("failed to send message " + msg.getType()
-		    + " (retry " + (errors + 1) + ')');
-	try {
-	  Thread.sleep(1000);
-	} catch (Exception e) {
-	  e.printStackTrace();
-	}
-      }
-      if (!sent) {
-	agent.fatalError("could not send message " + msg.getType()
-			 + " to server");
-      }
-    }
-  }
-
-  private synchronized TACMessage getMessage() {
-    while (queue.isEmpty()) {
-      try {
-	wait();
-      } catch (Exception e) {
-	e.printStackTrace();
-      }
-    }
-    return (TACMessage) queue.remove(0);
-  }
-
-  private synchronized void addMessage(TACMessage msg) {
-    queue.add(msg);
-    notify();
-  }
-
   public void sendMessage(TACMessage msg) throws IOException {
     if (disconnected) {
       throw new IOException("Disconnected from server");
     }
-    addMessage(msg);
+    // Messages for an auction are always sent in the same lane to keep
+    // them in order. All other messages are sent in the first lane.
+    Lane[] lanes = this.lanes;
+    int auction = msg.getAuction();
+    int index = auction >= 0 ? auction % lanes.length : 0;
+    lanes[index].addMessage(msg);
   }
 
-  private boolean sendMsg(TACMessage msg) {
-    try {
-      String msgStr = msg.getMessageString();
-      URLConnection conn = url.openConnection();
-      conn.setRequestProperty("Content-Length", "" + msgStr.length());
-      conn.setDoOutput(true);
-      OutputStream output = conn.getOutputStream();
-      output.write(msgStr.getBytes());
-      output.flush();
-
-      InputStream input = conn.getInputStream();
-      int len = conn.getContentLength();
-      int totalRead = 0;
-      int read;
-      byte[] content = new byte[len];
-      while ((len > totalRead)
-	     && (read = input.read(content, totalRead, len - totalRead)) > 0) {
-	totalRead += read;
-      }
-      output.close();
-      input.close();
 
-      if (len < totalRead) {
-	// Connection closed from other end
-	log.severe("truncated message response for " + msg.getType());
-	return false;
+  // -------------------------------------------------------------------
+  // Lane - one request in flight at a time
+  // -------------------------------------------------------------------
+
+  private class Lane implements Runnable {
+
+    private TACEncoder encoder = new TACEncoder();
+    private ArrayList queue = new ArrayList();
+
+    public void run() {
+      while (true) {
+	TACMessage msg = getMessage();
+	boolean sent;
+	for (int errors = 0; !(sent = sendMsg(msg)) && errors < 3;
+	     errors++) {
+	  log.warning("failed to send message " + msg.getType()
+		      + " (retry " + (errors + 1) + ')');
+	  try {
+	    Thread.sleep(1000);
+	  } catch (Exception e) {
+	    e.printStackTrace();
+	  }
+	}
+	if (!sent) {
+	  agent.fatalError("could not send message " + msg.getType()
+			   + " to server");
+	}
+      }
+    }
 
-      } else {
-	msgStr = new String(content);
-	msg.setReceivedMessage(msgStr);
+    private synchronized TACMessage getMessage() {
+      while (queue.isEmpty()) {
+	try {
+	  wait();
+	} catch (Exception e) {
+	  e.printStackTrace();
+	}
+      }
+      return (TACMessage) queue.remove(0);
+    }
 
-	// Should be delivered by a dispatcher!!!
+    private synchronized void addMessage(TACMessage msg) {
+      queue.add(msg);
+      notify();
+    }
 
-	msg.deliverMessage();
+    private boolean sendMsg(TACMessage msg) {
+      try {
+	int msgLen = encoder.encode(msg);
+	URLConnection conn = url.openConnection();
+	conn.setRequestProperty("Content-Length", "" + msgLen);
+	conn.setDoOutput(true);
+	OutputStream output = conn.getOutputStream();
+	output.write(encoder.getBuffer(), 0, msgLen);
+	output.flush();
+
+	InputStream input = conn.getInputStream();
+	int len = conn.getContentLength();
+	int totalRead = 0;
+	int read;
+	byte[] content = new byte[len];
+	while ((len > totalRead)
+	       && (read = input.read(content, totalRead,
+				     len - totalRead)) > 0) {
+	  totalRead += read;
+	}
+	// Closing the streams (after reading the complete response)
+	// returns the connection to the keep-alive cache
+	output.close();
+	input.close();
+
+	if (totalRead < len) {
+	  // Connection closed from other end
+	  log.severe("truncated message response for " + msg.getType());
+	  return false;
+
+	} else {
+	  msg.setReceivedMessage(content, 0, totalRead);
+
+	  synchronized (deliveryLock) {
+	    msg.deliverMessage();
+	  }
+	}
+	return true;
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "could not send message", e);
+	return false;
       }
-      return true;
-    } catch (Exception e) {
-      log.log(Level.SEVERE, "could not send message", e);
-      return false;
     }
-  }
+
+  } // Lane
 
 } // TACHttpConnection
@@ -24,7 +24,7 @@
  */
 
 package se.sics.tac.aw;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,16 +33,36 @@ public class TACMessage {
   private static final Logger log =
     Logger.getLogger(TACMessage.class.getName());
 
-  private static long msgCount = 0;
-  private static long totalResponseTime = 0;
+  /** Response times for all messages and per message type */
+  private final static LatencyHistogram responseTimes =
+    new LatencyHistogram();
+  private final static LatencyHistogram[] typeResponseTimes =
+    new LatencyHistogram[TACTag.QUIT + 1];
+
+  static {
+    for (int i = 0, n = typeResponseTimes.length; i < n; i++) {
+      typeResponseTimes[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Parameter value types */
+  final static int PARAM_STRING = 0;
+  final static int PARAM_INT = 1;
+  final static int PARAM_FLOAT = 2;
 
   private final String type;
-  private ArrayList msg;
+
+  // The parameters are kept unformatted and are written directly to
+  // the connection by TACEncoder. Float values are stored as int bits.
+  private String[] paramName;
+  private String[] paramString;
+  private int[] paramValue;
+  private byte[] paramType;
+  private int paramCount;
 
   private String sentMessage;
   private long timeSent;
-  private String receivedMessage;
-  private int pos = 0;
+  private TACParser parser;
   private long responseTime;
   private boolean isTACError = false;
 
@@ -51,7 +71,6 @@ public class TACMessage {
 
   public TACMessage(String type) {
     this.type = type;
-    msg = new ArrayList();
   }
 
   public String getType() {
@@ -94,158 +113,213 @@ public class TACMessage {
   }
 
   void setReceivedMessage(String receivedMessage) {
-    if (this.receivedMessage != null) {
+    byte[] data = receivedMessage.getBytes(Charset.forName("UTF-8"));
+    setReceivedMessage(data, 0, data.length);
+  }
+
+  /**
+   * Sets the received reply for this message. The data is parsed in
+   * place and must not be modified after this call.
+   */
+  void setReceivedMessage(byte[] data, int offset, int length) {
+    if (this.parser != null) {
       throw new IllegalStateException("Message alredy received: " +
-				      this.receivedMessage);
+				      this.parser);
     }
     if (timeSent > 0) {
       responseTime = System.currentTimeMillis() - timeSent;
     }
-    this.receivedMessage = receivedMessage;
-    totalResponseTime += responseTime;
-    msgCount++;
+    TACParser parser = new TACParser(data, offset, length);
+    this.parser = parser;
+    responseTimes.record(responseTime);
+    getResponseTimes(TACTag.lookup(type)).record(responseTime);
 
     // Check if extra information should be displayed
-    if ("getQuote".equals(type)) {
-      Object data = userData;
-      int auction = -1;
-      if (data instanceof Quote) {
-	auction = ((Quote) data).getAuction();
-      } else if (data instanceof Bid) {
-	auction = ((Bid) data).getAuction();
+    if (log.isLoggable(Level.FINEST)) {
+      logReceivedMessage();
+    }
+
+    if (parser.nextTag() && (!parser.isDeclaration() || parser.nextTag())) {
+      if (parser.isTag(type)) {
+	parser.rewind();
+      } else if (parser.getTagID() == TACTag.TACERROR) {
+	isTACError = true;
+      } else {
+	throw new IllegalStateException("Message not expected: " +
+					type + " -> " + parser.getTag());
       }
+    } else {
+      throw new IllegalArgumentException("Malformed message: " + parser);
+    }
+  }
+
+  /**
+   * Returns the auction this message concerns or -1 if the message is
+   * not for a specific auction.
+   */
+  int getAuction() {
+    Object data = userData;
+    if (data instanceof Quote) {
+      return ((Quote) data).getAuction();
+    } else if (data instanceof Bid) {
+      return ((Bid) data).getAuction();
+    }
+    return -1;
+  }
+
+  private void logReceivedMessage() {
+    if ("getQuote".equals(type)) {
+      int auction = getAuction();
       if (auction >= 0) {
 	log.finest("requesting quotes for auction " + auction + " ("
 		   + TACAgent.getAuctionTypeAsString(auction) + ')');
       }
     } else if ("submitBid".equals(type) || "replaceBid".equals(type)) {
-      Object data = userData;
-      if (data instanceof Bid) {
-	int auction = ((Bid) data).getAuction();
+      int auction = getAuction();
+      if (auction >= 0) {
 	log.finest("submitting bid (" + type
 		   + ") to auction " + auction + " ("
 		   + TACAgent.getAuctionTypeAsString(auction) + ')');
       }
     }
 
-    log.finest("XML out: '" + sentMessage + '\'');
-    log.finest("XML in: '" + receivedMessage + "' responseTime: " +
+    log.finest("XML out: '" + (sentMessage != null
+			       ? sentMessage
+			       : TACEncoder.toMessageString(this)) + '\'');
+    log.finest("XML in: '" + parser + "' responseTime: " +
 	       getResponseTime() + " avg: " +
 	       getAverageResponseTime() + " count: " +
 	       getMessageCount());
+  }
 
-    pos = 0;
-    if (nextTag() && (!isDeclaration() || nextTag())) {
-      if (isTag(type)) {
-	pos = 0;
-      } else if (isTag("tacerror")) {
-	isTACError = true;
-      } else {
-	throw new IllegalStateException("Message not expected: " +
-					type + " -> " + getTag());
-      }
-    } else {
-      throw new IllegalArgumentException("Malformed message: " +
-					 receivedMessage);
-    }
+  /**
+   * Returns the pull parser positioned in the received reply or
+   * <code>null</code> if no reply has been received yet.
+   */
+  public TACParser getParser() {
+    return parser;
   }
 
   public void setParameter(String name, String value) {
-    msg.add(name);
-    msg.add(value);
-    sentMessage = null;
+    addParameter(name, PARAM_STRING, value, 0);
   }
 
   public void setParameter(String name, int value) {
-    msg.add(name);
-    msg.add(Integer.toString(value));
-    sentMessage = null;
+    addParameter(name, PARAM_INT, null, value);
   }
 
   public void setParameter(String name, float value) {
-    msg.add(name);
-    msg.add(Float.toString(value));
+    addParameter(name, PARAM_FLOAT, null, Float.floatToIntBits(value));
+  }
+
+  private void addParameter(String name, int type, String text, int value) {
+    if (paramName == null) {
+      paramName = new String[4];
+      paramString = new String[4];
+      paramValue = new int[4];
+      paramType = new byte[4];
+    } else if (paramCount == paramName.length) {
+      int size = paramCount * 2;
+      String[] tmpName = new String[size];
+      String[] tmpString = new String[size];
+      int[] tmpValue = new int[size];
+      byte[] tmpType = new byte[size];
+      System.arraycopy(paramName, 0, tmpName, 0, paramCount);
+      System.arraycopy(paramString, 0, tmpString, 0, paramCount);
+      System.arraycopy(paramValue, 0, tmpValue, 0, paramCount);
+      System.arraycopy(paramType, 0, tmpType, 0, paramCount);
+      paramName = tmpName;
+      paramString = tmpString;
+      paramValue = tmpValue;
+      paramType = tmpType;
+    }
+    paramName[paramCount] = name;
+    paramString[paramCount] = text;
+    paramValue[paramCount] = value;
+    paramType[paramCount] = (byte) type;
+    paramCount++;
     sentMessage = null;
   }
 
   public String getParameter(String name) {
-    for (int i = 0, n = msg.size(); i < n; i += 2) {
-      if (msg.get(i).equals(name))
-	return (String) msg.get(i + 1);
+    for (int i = 0, n = paramCount; i < n; i++) {
+      if (paramName[i].equals(name)) {
+	switch (paramType[i]) {
+	case PARAM_INT:
+	  return Integer.toString(paramValue[i]);
+	case PARAM_FLOAT:
+	  return Float.toString(Float.intBitsToFloat(paramValue[i]));
+	default:
+	  return paramString[i];
+	}
+      }
     }
     return null;
   }
 
+  int getParameterCount() {
+    return paramCount;
+  }
+
+  String getParameterName(int index) {
+    return paramName[index];
+  }
+
+  int getParameterType(int index) {
+    return paramType[index];
+  }
+
+  String getParameterString(int index) {
+    return paramString[index];
+  }
+
+  int getParameterInt(int index) {
+    return paramValue[index];
+  }
+
+  float getParameterFloat(int index) {
+    return Float.intBitsToFloat(paramValue[index]);
+  }
+
+  // Timestamp the generation of this message (when it was sent)
+  void messageSent() {
+    this.timeSent = System.currentTimeMillis();
+  }
+
+  // -------------------------------------------------------------------
+  // Compatibility API - delegates to the pull parser
+  // -------------------------------------------------------------------
+
   public boolean nextTag() {
-    if (pos < receivedMessage.length()) {
-      int nextPos = receivedMessage.indexOf('<', pos);
-      if (nextPos >= 0) {
-	pos = nextPos + 1;
-	return true;
-      }
-    }
-    return false;
+    return parser.nextTag();
   }
 
   public String getValue() {
-    int start = receivedMessage.indexOf('>', pos);
-    int end = receivedMessage.indexOf('<', start);
-    if (start > 0 && end > 0) {
-      return receivedMessage.substring(start + 1, end);
-    }
-    return null;
+    return parser.getValue();
   }
 
   public int getValueAsInt(int def) {
-    String val = getValue();
-    if (val != null) {
-      try {
-	return Integer.parseInt(val);
-      } catch (Exception e) {
-      }
-    }
-    return def;
+    return parser.getValueAsInt(def);
   }
 
   public long getValueAsLong(long def) {
-    String val = getValue();
-    if (val != null) {
-      try {
-	return Long.parseLong(val);
-      } catch (Exception e) {
-      }
-    }
-    return def;
+    return parser.getValueAsLong(def);
   }
 
   public float getValueAsFloat(float def) {
-    String val = getValue();
-    if (val != null) {
-      try {
-	return Float.parseFloat(val);
-      } catch (Exception e) {
-      }
-    }
-    return def;
+    return parser.getValueAsFloat(def);
   }
 
   public String getTag() {
-    int end = receivedMessage.indexOf('>', pos);
-    if (end > 0) {
-      return receivedMessage.substring(pos, end);
-    }
-    return null;
+    return parser.getTag();
   }
 
   public boolean isDeclaration() {
-    return pos < receivedMessage.length()
-      && receivedMessage.charAt(pos) == '?';
+    return parser.isDeclaration();
   }
 
   public boolean isTag(String name) {
-    name = name + '>';
-    int len = name.length();
-    return receivedMessage.regionMatches(pos, name, 0, len);
+    return parser.isTag(name);
   }
 
 //   public void reset() {
@@ -255,39 +329,63 @@ public class TACMessage {
   public String getMessageString() {
     String message = this.sentMessage;
     if (message == null) {
-      StringBuffer sb = new StringBuffer();
-      sb.append('<').append(type).append('>');
-
-      for (int i = 0, n = msg.size(); i < n; i += 2) {
-	sb.append('<').append(msg.get(i)).append('>');
-	sb.append(msg.get(i+1));
-	sb.append("</").append(msg.get(i)).append('>');
-      }
-      sb.append("</").append(type).append('>');
-      this.sentMessage = sb.toString();
-      // Timestamp the generation of this message (when it was sent)
-      this.timeSent = System.currentTimeMillis();
-      return sb.append('\0').toString();
-    } else {
-      // Timestamp the generation of this message (when it was sent)
-      this.timeSent = System.currentTimeMillis();
-      return message + '\0';
+      this.sentMessage = message = TACEncoder.toMessageString(this);
     }
+    messageSent();
+    return message + '\0';
   }
 
   public static long getMessageCount() {
-    return msgCount;
+    return responseTimes.getCount();
   }
 
   public static float getAverageResponseTime() {
-    if (msgCount == 0) {
-      return 0f;
+    return (float) responseTimes.getMean();
+  }
+
+  /**
+   * Returns the response times of all messages since the last reset.
+   */
+  public static LatencyHistogram getResponseTimes() {
+    return responseTimes;
+  }
+
+  /**
+   * Returns the response times for the specified message type, such
+   * as "getQuote" or "submitBid", since the last reset.
+   */
+  public static LatencyHistogram getResponseTimes(String type) {
+    return getResponseTimes(TACTag.lookup(type));
+  }
+
+  private static LatencyHistogram getResponseTimes(int typeID) {
+    // Messages with unknown types are kept together
+    return typeID < typeResponseTimes.length
+      ? typeResponseTimes[typeID]
+      : typeResponseTimes[TACTag.UNKNOWN];
+  }
+
+  /**
+   * Returns a summary of the response times per message type.
+   */
+  public static String getResponseTimeStatistics() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("all: ").append(responseTimes);
+    for (int i = 0, n = typeResponseTimes.length; i < n; i++) {
+      LatencyHistogram h = typeResponseTimes[i];
+      if (h.getCount() > 0) {
+	String name = TACTag.getTagName(i);
+	sb.append("\n  ").append(name != null ? name : "other")
+	  .append(": ").append(h);
+      }
     }
-    return (float) (totalResponseTime / msgCount);
+    return sb.toString();
   }
 
   public static void resetResponseTime() {
-    totalResponseTime = 0;
-    msgCount = 0;
+    responseTimes.reset();
+    for (int i = 0, n = typeResponseTimes.length; i < n; i++) {
+      typeResponseTimes[i].reset();
+    }
   }
 }
@@ -0,0 +1,304 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TACParser
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A cursor based pull parser over the bytes of a received TAC
+ *   message. Tags are matched and numeric values are parsed directly
+ *   in the received data without creating any intermediate strings.
+ *   Only getTag(), getValue() and toString() allocate.
+ */
+
+package se.sics.tac.aw;
+import java.nio.charset.Charset;
+
+public class TACParser {
+
+  private final static Charset CHARSET = Charset.forName("UTF-8");
+
+  /** Powers of ten that are exactly representable as floats */
+  private final static float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  /** Largest mantissa that is exactly representable as a float */
+  private final static int MAX_FLOAT_MANTISSA = 1 << 24;
+
+  private byte[] data;
+  private int start;
+  private int end;
+
+  // Position directly after the '<' of the current tag
+  private int pos;
+  // Position of the '>' ending the current tag or -1 if none
+  private int tagEnd;
+  // Tag id of the current tag (resolved on demand)
+  private int tagID;
+  private boolean isTagResolved;
+
+  public TACParser() {
+  }
+
+  public TACParser(byte[] data, int offset, int length) {
+    setData(data, offset, length);
+  }
+
+  public void setData(byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > data.length) {
+      throw new IndexOutOfBoundsException("offset=" + offset
+					  + ", length=" + length);
+    }
+    this.data = data;
+    this.start = offset;
+    this.end = offset + length;
+    rewind();
+  }
+
+  public int getLength() {
+    return end - start;
+  }
+
+  /**
+   * Moves the cursor back to the beginning of the message.
+   */
+  public void rewind() {
+    pos = start;
+    tagEnd = -1;
+    isTagResolved = false;
+  }
+
+  /**
+   * Moves the cursor to the next tag (start or end tag) in the message.
+   *
+   * @return <code>true</code> if another tag was found and
+   *	<code>false</code> if the end of the message has been reached
+   */
+  public boolean nextTag() {
+    byte[] data = this.data;
+    for (int i = pos, n = end; i < n; i++) {
+      if (data[i] == '<') {
+	pos = i + 1;
+	tagEnd = indexOf('>', pos);
+	isTagResolved = false;
+	return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the id of the current tag as defined in
+   * <code>TACTag</code>. The id is resolved once per tag and then
+   * cached until the cursor is moved.
+   *
+   * @return the tag id or <code>TACTag.UNKNOWN</code> if the tag is
+   *	not part of the TAC protocol
+   */
+  public int getTagID() {
+    if (!isTagResolved) {
+      tagID = tagEnd > 0
+	? TACTag.lookup(data, pos, tagEnd - pos)
+	: TACTag.UNKNOWN;
+      isTagResolved = true;
+    }
+    return tagID;
+  }
+
+  public boolean isDeclaration() {
+    return pos < end && data[pos] == '?';
+  }
+
+  public boolean isEndTag() {
+    return pos < end && data[pos] == '/';
+  }
+
+  /**
+   * Returns <code>true</code> if the current tag has the specified
+   * name. End tags are matched by including the '/' in the name.
+   */
+  public boolean isTag(String name) {
+    int len = name.length();
+    int p = pos;
+    if (p + len >= end) {
+      return false;
+    }
+    byte[] data = this.data;
+    for (int i = 0; i < len; i++) {
+      if (data[p + i] != name.charAt(i)) {
+	return false;
+      }
+    }
+    return data[p + len] == '>';
+  }
+
+  public String getTag() {
+    int tagEnd = this.tagEnd;
+    if (tagEnd > 0) {
+      return new String(data, pos, tagEnd - pos, CHARSET);
+    }
+    return null;
+  }
+
+  public String getValue() {
+    int valueStart = tagEnd + 1;
+    int valueEnd;
+    if (valueStart > 0 && (valueEnd = indexOf('<', valueStart)) > 0) {
+      return new String(data, valueStart, valueEnd - valueStart, CHARSET);
+    }
+    return null;
+  }
+
+  public int getValueAsInt(int def) {
+    int valueStart = tagEnd + 1;
+    int valueEnd;
+    if (valueStart > 0 && (valueEnd = indexOf('<', valueStart)) > 0) {
+      return (int) parseLong(valueStart, valueEnd,
+			     Integer.MIN_VALUE, Integer.MAX_VALUE, def);
+    }
+    return def;
+  }
+
+  public long getValueAsLong(long def) {
+    int valueStart = tagEnd + 1;
+    int valueEnd;
+    if (valueStart > 0 && (valueEnd = indexOf('<', valueStart)) > 0) {
+      return parseLong(valueStart, valueEnd,
+		       Long.MIN_VALUE, Long.MAX_VALUE, def);
+    }
+    return def;
+  }
+
+  public float getValueAsFloat(float def) {
+    int valueStart = tagEnd + 1;
+    int valueEnd;
+    if (valueStart > 0 && (valueEnd = indexOf('<', valueStart)) > 0) {
+      return parseFloat(valueStart, valueEnd, def);
+    }
+    return def;
+  }
+
+  public String toString() {
+    return data == null ? "" : new String(data, start, end - start, CHARSET);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Parsing utilities
+  // -------------------------------------------------------------------
+
+  private int indexOf(int c, int from) {
+    byte[] data = this.data;
+    for (int i = from, n = end; i < n; i++) {
+      if (data[i] == c) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  // Same semantics as Long.parseLong() but returns the default value
+  // instead of throwing an exception.  The value is accumulated
+  // negatively to handle the minimum value without overflow.
+  private long parseLong(int i, int n, long min, long max, long def) {
+    if (i >= n) {
+      return def;
+    }
+    byte[] data = this.data;
+    boolean negative = false;
+    byte c = data[i];
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      if (++i == n) {
+	return def;
+      }
+    }
+    long limit = negative ? min : -max;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < n; i++) {
+      int digit = data[i] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+	return def;
+      }
+      result *= 10;
+      if (result < limit + digit) {
+	return def;
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  // Parses plain decimal values in place.  Since both the mantissa and
+  // the power of ten are exact floats the division is correctly
+  // rounded and gives the same result as Float.parseFloat().  Anything
+  // else (exponents, long mantissas, whitespace) is handed to
+  // Float.parseFloat().
+  private float parseFloat(int i, int n, float def) {
+    byte[] data = this.data;
+    int p = i;
+    boolean negative = false;
+    if (p < n && (data[p] == '-' || data[p] == '+')) {
+      negative = data[p] == '-';
+      p++;
+    }
+    int mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; p < n; p++) {
+      int c = data[p];
+      if (c >= '0' && c <= '9') {
+	mantissa = mantissa * 10 + (c - '0');
+	if (mantissa > MAX_FLOAT_MANTISSA) {
+	  return parseFloatSlow(i, n, def);
+	}
+	digits++;
+	if (decimals >= 0) {
+	  decimals++;
+	}
+      } else if (c == '.' && decimals < 0) {
+	decimals = 0;
+      } else {
+	return parseFloatSlow(i, n, def);
+      }
+    }
+    if (digits == 0) {
+      return parseFloatSlow(i, n, def);
+    }
+    float value = (float) mantissa;
+    if (decimals > 0) {
+      if (decimals >= FLOAT_POW10.length) {
+	return parseFloatSlow(i, n, def);
+      }
+      value /= FLOAT_POW10[decimals];
+    }
+    return negative ? -value : value;
+  }
+
+  private float parseFloatSlow(int i, int n, float def) {
+    try {
+      return Float.parseFloat(new String(data, i, n - i, CHARSET));
+    } catch (Exception e) {
+      return def;
+    }
+  }
+
+} // TACParser
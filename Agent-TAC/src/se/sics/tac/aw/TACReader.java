@@ -26,7 +26,7 @@
 package se.sics.tac.aw;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -39,7 +39,8 @@ public class TACReader extends TACConnection implements Runnable {
     Logger.getLogger(TACReader.class.getName());
 
   private InputStream input;
-  private OutputStreamWriter output;
+  private OutputStream output;
+  private TACWriteBuffer writer;
   private Socket socket;
 
   private ArrayQueue queue = new ArrayQueue();
@@ -73,16 +74,52 @@ public class TACReader extends TACConnection implements Runnable {
       throw new IOException("Disconnected from server");
     }
 
-    String msgStr = msg.getMessageString();
     addMessage(msg);
-    output.write(msgStr);
-    output.flush();
+    writer.write(msg);
+  }
+
+  public void beginBatch() {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.beginBatch();
+    }
+  }
+
+  public void endBatch() throws IOException {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.endBatch();
+    }
+  }
+
+  public long getMessageCount() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getMessageCount() : 0L;
+  }
+
+  public long getWriteCount() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getWriteCount() : 0L;
+  }
+
+  public LatencyHistogram getBatchWriteCounts() {
+    TACWriteBuffer writer = this.writer;
+    return writer != null ? writer.getBatchWriteCounts() : null;
+  }
+
+  public void resetStatistics() {
+    TACWriteBuffer writer = this.writer;
+    if (writer != null) {
+      writer.resetStatistics();
+    }
   }
 
   public void run() {
     try {
       byte[] buffer = new byte[1024];
-      StringBuffer lastMessage = new StringBuffer();
+      // Partial message when a message is split over several reads
+      byte[] lastMessage = new byte[1024];
+      int lastLen = 0;
       int len;
       int lastPos;
 
@@ -90,10 +127,13 @@ public class TACReader extends TACConnection implements Runnable {
 	lastPos = 0;
 	for (int i = 0; i < len; i++) {
 	  if (buffer[i] == 0) {
-	    String msg = new String(buffer, lastPos, i - lastPos);
-	    lastMessage.append(msg);
-	    handleMessage(lastMessage.toString());
-	    lastMessage = new StringBuffer();
+	    // Each message gets its own copy of the data since the
+	    // message is parsed in place
+	    byte[] msg = new byte[lastLen + i - lastPos];
+	    System.arraycopy(lastMessage, 0, msg, 0, lastLen);
+	    System.arraycopy(buffer, lastPos, msg, lastLen, i - lastPos);
+	    handleMessage(msg);
+	    lastLen = 0;
 	    lastPos = i + 1;
 	    /* To test if the server handles agents that does not read
 	       if (msg.indexOf("bidInfo") > 0) {
@@ -104,7 +144,14 @@ public class TACReader extends TACConnection implements Runnable {
 	  }
 	}
 	if (lastPos < len) {
-	  lastMessage.append(new String(buffer, lastPos, len - lastPos));
+	  int n = len - lastPos;
+	  if (lastLen + n > lastMessage.length) {
+	    byte[] tmp = new byte[(lastLen + n) * 2];
+	    System.arraycopy(lastMessage, 0, tmp, 0, lastLen);
+	    lastMessage = tmp;
+	  }
+	  System.arraycopy(buffer, lastPos, lastMessage, lastLen, n);
+	  lastLen += n;
 	}
       }
     } catch (Throwable e) {
@@ -122,8 +169,21 @@ public class TACReader extends TACConnection implements Runnable {
       int port = agent.getPort();
       log.fine("Connecting to server " + host + ':' + port);
       socket = new Socket(host, port);
+      socket.setTcpNoDelay(agent.isTcpNoDelay());
       input = socket.getInputStream();
-      output = new OutputStreamWriter(socket.getOutputStream());
+      output = socket.getOutputStream();
+      writer = new TACWriteBuffer(agent.getFlushDelay()) {
+	  protected void writeData(byte[] data, int offset, int length)
+	    throws IOException {
+	    output.write(data, offset, length);
+	    output.flush();
+	  }
+
+	  protected void flushFailed(IOException e) {
+	    log.log(Level.SEVERE, "could not write:", e);
+	    disconnect();
+	  }
+	};
       disconnected = false;
       new Thread(this).start();
 
@@ -152,15 +212,15 @@ public class TACReader extends TACConnection implements Runnable {
     return (TACMessage) queue.remove(0);
   }
 
-  private void handleMessage(String msg) {
+  private void handleMessage(byte[] msg) {
     TACMessage tacMsg = getMessage();
     if (tacMsg == null) {
       ///??? ILLEGAL STATE!!!
       throw new IllegalStateException("received unexpected message: "
-				      + msg);
+				      + new TACParser(msg, 0, msg.length));
     }
     if (!disconnected) {
-      tacMsg.setReceivedMessage(msg);
+      tacMsg.setReceivedMessage(msg, 0, msg.length);
       tacMsg.deliverMessage();
     }
   }
@@ -0,0 +1,298 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TACTag
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Static dictionary of all tags used in the TAC protocol. Each tag
+ *   name maps to a small integer id so that message handling can
+ *   switch on the id instead of comparing strings. End tags have the
+ *   END bit set, i.e. "/transInfo" has the id END | TRANS_INFO.
+ *
+ *   The lookup table is a perfect hash built when the class is
+ *   loaded: the hash seed is chosen so that all known tag names map
+ *   to different slots and a lookup is a single hash followed by one
+ *   byte comparison.
+ */
+
+package se.sics.tac.aw;
+
+public final class TACTag {
+
+  public final static int UNKNOWN = 0;
+
+  /** Bit set for end tags */
+  public final static int END = 0x100;
+
+  /** Message types */
+  public final static int AUTH = 1;
+  public final static int SERVER_TIME = 2;
+  public final static int NEXT_GAME = 3;
+  public final static int GET_GAME_PARAMS = 4;
+  public final static int GET_GAME_AUCTION_IDS = 5;
+  public final static int GET_GAME_CONSTS = 6;
+  public final static int SUBMIT_BID = 7;
+  public final static int REPLACE_BID = 8;
+  public final static int GET_QUOTE = 9;
+  public final static int BID_INFO = 10;
+  public final static int TRANS_IDS = 11;
+  public final static int TRANS_INFO = 12;
+  public final static int RECOVER_BID_IDS = 13;
+  public final static int TACERROR = 14;
+  public final static int QUIT = 15;
+
+  /** Message fields */
+  public final static int COMMAND_STATUS = 20;
+  public final static int USER_ID = 21;
+  public final static int TIME = 22;
+  public final static int GAME_ID = 23;
+  public final static int START_TIME = 24;
+  public final static int GAME_LENGTH = 25;
+  public final static int GAME_TYPE = 26;
+  public final static int AUCTION_ID = 27;
+  public final static int AUCTION_IDS = 28;
+  public final static int TAC_AUCTION_TUPLE = 29;
+  public final static int CATEGORY = 30;
+  public final static int TYPE = 31;
+  public final static int DAY = 32;
+  public final static int ID = 33;
+  public final static int BID_ID = 34;
+  public final static int BID_HASH = 35;
+  public final static int BID_STRING = 36;
+  public final static int REJECT_REASON = 37;
+  public final static int PROCESSING_STATE = 38;
+  public final static int TIME_CLOSED = 39;
+  public final static int TIME_PROCESSED = 40;
+  public final static int AUCTION_BID_IDS_TUPLE = 41;
+  public final static int LAST_ASK_PRICE = 42;
+  public final static int LAST_BID_PRICE = 43;
+  public final static int HYPOTHETICAL_QUANTITY_WON = 44;
+  public final static int AUCTION_STATUS = 45;
+  public final static int NEXT_QUOTE_TIME = 46;
+  public final static int LAST_QUOTE_TIME = 47;
+  public final static int TRANS_ID = 48;
+  public final static int QUANTITY = 49;
+  public final static int PRICE = 50;
+  public final static int CLIENT_PREFERENCES = 51;
+  public final static int CLIENT_PREF_TUPLE = 52;
+  public final static int CLIENT = 53;
+  public final static int ARRIVAL = 54;
+  public final static int DEPARTURE = 55;
+  public final static int HOTEL = 56;
+  public final static int TICKET_PREFERENCES = 57;
+  public final static int TYPE_PRICE_TUPLE = 58;
+  public final static int TICKET_ENDOWMENTS = 59;
+  public final static int TICKET_ENDOWMENT_TUPLE = 60;
+  public final static int LIST = 61;
+
+  /** Request fields (only sent to the server) */
+  public final static int USER_NAME = 62;
+  public final static int USER_PW = 63;
+  public final static int EXPIRE_TIME = 64;
+  public final static int EXPIRE_MODE = 65;
+  public final static int DIVISIBLE = 66;
+  public final static int EARLIEST_TRANS_ID = 67;
+
+  private final static String[] tagName = new String[68];
+  static {
+    tagName[AUTH] = "auth";
+    tagName[SERVER_TIME] = "serverTime";
+    tagName[NEXT_GAME] = "nextGame";
+    tagName[GET_GAME_PARAMS] = "getGameParams";
+    tagName[GET_GAME_AUCTION_IDS] = "getGameAuctionIDs";
+    tagName[GET_GAME_CONSTS] = "getGameConsts";
+    tagName[SUBMIT_BID] = "submitBid";
+    tagName[REPLACE_BID] = "replaceBid";
+    tagName[GET_QUOTE] = "getQuote";
+    tagName[BID_INFO] = "bidInfo";
+    tagName[TRANS_IDS] = "transIDs";
+    tagName[TRANS_INFO] = "transInfo";
+    tagName[RECOVER_BID_IDS] = "recoverBidIDs";
+    tagName[TACERROR] = "tacerror";
+    tagName[QUIT] = "quit";
+
+    tagName[COMMAND_STATUS] = "commandStatus";
+    tagName[USER_ID] = "userID";
+    tagName[TIME] = "time";
+    tagName[GAME_ID] = "gameID";
+    tagName[START_TIME] = "startTime";
+    tagName[GAME_LENGTH] = "gameLength";
+    tagName[GAME_TYPE] = "gameType";
+    tagName[AUCTION_ID] = "auctionID";
+    tagName[AUCTION_IDS] = "auctionIDs";
+    tagName[TAC_AUCTION_TUPLE] = "TACAuctionTuple";
+    tagName[CATEGORY] = "category";
+    tagName[TYPE] = "type";
+    tagName[DAY] = "day";
+    tagName[ID] = "ID";
+    tagName[BID_ID] = "bidID";
+    tagName[BID_HASH] = "bidHash";
+    tagName[BID_STRING] = "bidString";
+    tagName[REJECT_REASON] = "rejectReason";
+    tagName[PROCESSING_STATE] = "processingState";
+    tagName[TIME_CLOSED] = "timeClosed";
+    tagName[TIME_PROCESSED] = "timeProcessed";
+    tagName[AUCTION_BID_IDS_TUPLE] = "auctionBidIDsTuple";
+    tagName[LAST_ASK_PRICE] = "lastAskPrice";
+    tagName[LAST_BID_PRICE] = "lastBidPrice";
+    tagName[HYPOTHETICAL_QUANTITY_WON] = "hypotheticalQuantityWon";
+    tagName[AUCTION_STATUS] = "auctionStatus";
+    tagName[NEXT_QUOTE_TIME] = "nextQuoteTime";
+    tagName[LAST_QUOTE_TIME] = "lastQuoteTime";
+    tagName[TRANS_ID] = "transID";
+    tagName[QUANTITY] = "quantity";
+    tagName[PRICE] = "price";
+    tagName[CLIENT_PREFERENCES] = "clientPreferences";
+    tagName[CLIENT_PREF_TUPLE] = "clientPrefTuple";
+    tagName[CLIENT] = "client";
+    tagName[ARRIVAL] = "arrival";
+    tagName[DEPARTURE] = "departure";
+    tagName[HOTEL] = "hotel";
+    tagName[TICKET_PREFERENCES] = "ticketPreferences";
+    tagName[TYPE_PRICE_TUPLE] = "typePriceTuple";
+    tagName[TICKET_ENDOWMENTS] = "ticketEndowments";
+    tagName[TICKET_ENDOWMENT_TUPLE] = "ticketEndowmentTuple";
+    tagName[LIST] = "list";
+
+    tagName[USER_NAME] = "userName";
+    tagName[USER_PW] = "userPW";
+    tagName[EXPIRE_TIME] = "expireTime";
+    tagName[EXPIRE_MODE] = "expireMode";
+    tagName[DIVISIBLE] = "divisible";
+    tagName[EARLIEST_TRANS_ID] = "earliestTransID";
+  }
+
+  private final static int TABLE_SIZE = 512;
+  private final static int TABLE_MASK = TABLE_SIZE - 1;
+
+  private final static byte[][] tableName = new byte[TABLE_SIZE][];
+  private final static int[] tableID = new int[TABLE_SIZE];
+  private final static int seed;
+
+  static {
+    int s = 0;
+    while (!buildTable(++s)) {
+      // Try the next seed until all tags have separate slots
+    }
+    seed = s;
+  }
+
+  private TACTag() {
+  }
+
+  private static boolean buildTable(int seed) {
+    for (int i = 0; i < TABLE_SIZE; i++) {
+      tableName[i] = null;
+    }
+    for (int id = 1, n = tagName.length; id < n; id++) {
+      String name = tagName[id];
+      if (name != null) {
+	byte[] data = new byte[name.length()];
+	for (int j = 0, m = data.length; j < m; j++) {
+	  data[j] = (byte) name.charAt(j);
+	}
+	int slot = hash(seed, data, 0, data.length) & TABLE_MASK;
+	if (tableName[slot] != null) {
+	  return false;
+	}
+	tableName[slot] = data;
+	tableID[slot] = id;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(int seed, byte[] data, int offset, int length) {
+    int h = seed;
+    for (int i = offset, n = offset + length; i < n; i++) {
+      h = h * 31 + data[i];
+    }
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Returns the id for the tag name in the specified data or
+   * <code>UNKNOWN</code> if the tag is not part of the protocol. A
+   * leading '/' is resolved as an end tag.
+   */
+  public static int lookup(byte[] data, int offset, int length) {
+    int end = 0;
+    if (length > 0 && data[offset] == '/') {
+      end = END;
+      offset++;
+      length--;
+    }
+    int slot = hash(seed, data, offset, length) & TABLE_MASK;
+    byte[] name = tableName[slot];
+    if (name == null || name.length != length) {
+      return UNKNOWN;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name[i] != data[offset + i]) {
+	return UNKNOWN;
+      }
+    }
+    return tableID[slot] | end;
+  }
+
+  /**
+   * Returns the id for the specified tag name or <code>UNKNOWN</code>
+   * if the tag is not part of the protocol.
+   */
+  public static int lookup(String name) {
+    int end = 0;
+    int offset = 0;
+    int length = name.length();
+    if (length > 0 && name.charAt(0) == '/') {
+      end = END;
+      offset = 1;
+      length--;
+    }
+    int h = seed;
+    for (int i = offset, n = offset + length; i < n; i++) {
+      h = h * 31 + (byte) name.charAt(i);
+    }
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    int slot = (h ^ (h >>> 16)) & TABLE_MASK;
+    byte[] tag = tableName[slot];
+    if (tag == null || tag.length != length) {
+      return UNKNOWN;
+    }
+    for (int i = 0; i < length; i++) {
+      if (tag[i] != name.charAt(offset + i)) {
+	return UNKNOWN;
+      }
+    }
+    return tableID[slot] | end;
+  }
+
+  public static String getTagName(int id) {
+    int tag = id & ~END;
+    String name = (tag > 0 && tag < tagName.length) ? tagName[tag] : null;
+    if (name == null) {
+      return null;
+    }
+    return (id & END) != 0 ? '/' + name : name;
+  }
+
+} // TACTag
@@ -0,0 +1,179 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TACWriteBuffer
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Collects encoded messages for a socket connection. Outside a
+ *   batch each message is written directly. Messages sent between
+ *   beginBatch() and endBatch() are accumulated and written with a
+ *   single write when the batch ends, when the buffer is full, or
+ *   when the first buffered message has waited the maximal flush
+ *   delay (so a message is never held back by a slow batch).
+ *
+ *   The number of writes used for each batch is recorded in a
+ *   histogram to show how well the bursts are coalesced.
+ */
+
+package se.sics.tac.aw;
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+abstract class TACWriteBuffer {
+
+  private final static int MAX_PENDING = 16384;
+
+  private static Timer flushTimer;
+
+  private final TACEncoder encoder = new TACEncoder();
+  private byte[] pending = new byte[4096];
+  private int pendingLen;
+  private int batchLevel;
+  private long flushDelay;
+  private TimerTask flushTask;
+
+  private long messageCount;
+  private long writeCount;
+  // Messages and writes in the current batch
+  private int batchMessages;
+  private int batchWrites;
+  private final LatencyHistogram batchWriteCounts = new LatencyHistogram();
+
+  protected TACWriteBuffer(long flushDelay) {
+    this.flushDelay = flushDelay;
+  }
+
+  /**
+   * Writes the data to the underlying connection.
+   */
+  protected abstract void writeData(byte[] data, int offset, int length)
+    throws IOException;
+
+  /**
+   * Called when a delayed flush fails.
+   */
+  protected abstract void flushFailed(IOException e);
+
+  public synchronized void write(TACMessage msg) throws IOException {
+    int len = encoder.encode(msg);
+    messageCount++;
+    if (batchLevel > 0) {
+      batchMessages++;
+    }
+    if (batchLevel == 0 && pendingLen == 0) {
+      writeCount++;
+      writeData(encoder.getBuffer(), 0, len);
+      return;
+    }
+
+    if (pendingLen + len > pending.length) {
+      byte[] tmp = new byte[(pendingLen + len) * 2];
+      System.arraycopy(pending, 0, tmp, 0, pendingLen);
+      pending = tmp;
+    }
+    System.arraycopy(encoder.getBuffer(), 0, pending, pendingLen, len);
+    pendingLen += len;
+
+    if (batchLevel == 0 || pendingLen >= MAX_PENDING || flushDelay <= 0) {
+      flush();
+    } else if (flushTask == null) {
+      flushTask = new TimerTask() {
+	  public void run() {
+	    delayedFlush(this);
+	  }
+	};
+      getFlushTimer().schedule(flushTask, flushDelay);
+    }
+  }
+
+  public synchronized void beginBatch() {
+    batchLevel++;
+  }
+
+  public synchronized void endBatch() throws IOException {
+    if (batchLevel > 0 && --batchLevel == 0) {
+      try {
+	flush();
+      } finally {
+	if (batchMessages > 0) {
+	  batchWriteCounts.record(batchWrites);
+	}
+	batchMessages = 0;
+	batchWrites = 0;
+      }
+    }
+  }
+
+  public synchronized void flush() throws IOException {
+    if (flushTask != null) {
+      flushTask.cancel();
+      flushTask = null;
+    }
+    if (pendingLen > 0) {
+      int len = pendingLen;
+      pendingLen = 0;
+      writeCount++;
+      if (batchLevel > 0 || batchMessages > 0) {
+	batchWrites++;
+      }
+      writeData(pending, 0, len);
+    }
+  }
+
+  private synchronized void delayedFlush(TimerTask task) {
+    if (flushTask == task) {
+      try {
+	flush();
+      } catch (IOException e) {
+	flushFailed(e);
+      }
+    }
+  }
+
+  public synchronized long getMessageCount() {
+    return messageCount;
+  }
+
+  public synchronized long getWriteCount() {
+    return writeCount;
+  }
+
+  /**
+   * Returns the histogram of the number of writes used per batch.
+   */
+  public LatencyHistogram getBatchWriteCounts() {
+    return batchWriteCounts;
+  }
+
+  public synchronized void resetStatistics() {
+    messageCount = 0L;
+    writeCount = 0L;
+    batchWriteCounts.reset();
+  }
+
+  private static synchronized Timer getFlushTimer() {
+    if (flushTimer == null) {
+      flushTimer = new Timer(true);
+    }
+    return flushTimer;
+  }
+
+} // TACWriteBuffer
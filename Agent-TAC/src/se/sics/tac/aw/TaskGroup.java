@@ -0,0 +1,58 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TaskGroup
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A group of tasks scheduled with TimeDispatcher that are cancelled
+ *   together, for example all timers for a game or a connection.
+ *   Cancelling the group takes constant time regardless of the number
+ *   of tasks in the group. A cancelled group can not be reused: tasks
+ *   added to it later are never performed.
+ */
+
+package se.sics.tac.aw;
+
+public class TaskGroup {
+
+  private final String name;
+  private volatile boolean isCancelled = false;
+
+  public TaskGroup(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return isCancelled;
+  }
+
+  public String toString() {
+    return "TaskGroup[" + name + (isCancelled ? ",cancelled]" : "]");
+  }
+
+} // TaskGroup
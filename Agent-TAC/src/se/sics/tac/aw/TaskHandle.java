@@ -0,0 +1,92 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TaskHandle
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A task scheduled with TimeDispatcher. Cancelling the handle only
+ *   marks the task as cancelled; the dispatcher drops it when it
+ *   becomes due or when the dispatcher cleans out cancelled tasks.
+ */
+
+package se.sics.tac.aw;
+
+public class TaskHandle {
+
+  final long time;
+  final Object key;
+  final Object value;
+  final Task task;
+  final TaskGroup group;
+  // Order of tasks scheduled at the same time
+  final long seq;
+  // Next task in the same list when kept in a linked list
+  TaskHandle next;
+
+  private volatile boolean isCancelled = false;
+
+  TaskHandle(long time, Object key, Object value, Task task,
+	     TaskGroup group, long seq) {
+    this.time = time;
+    this.key = key;
+    this.value = value;
+    this.task = task;
+    this.group = group;
+    this.seq = seq;
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  public Object getKey() {
+    return key;
+  }
+
+  public TaskGroup getGroup() {
+    return group;
+  }
+
+  /**
+   * Cancels this task. Does nothing if the task already has been
+   * performed.
+   */
+  public void cancel() {
+    isCancelled = true;
+  }
+
+  /**
+   * Returns <code>true</code> if this task or its group has been
+   * cancelled.
+   */
+  public boolean isCancelled() {
+    return isCancelled || (group != null && group.isCancelled());
+  }
+
+  boolean isBefore(TaskHandle h) {
+    return time < h.time || (time == h.time && seq < h.seq);
+  }
+
+  public String toString() {
+    return "TaskHandle[" + key + ',' + time
+      + (isCancelled() ? ",cancelled]" : "]");
+  }
+
+} // TaskHandle
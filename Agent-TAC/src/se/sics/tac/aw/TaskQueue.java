@@ -0,0 +1,76 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TaskQueue
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   The scheduled tasks of a TimeDispatcher. All methods are called
+ *   with the lock on the dispatcher held. Times are server times in
+ *   milliseconds.
+ */
+
+package se.sics.tac.aw;
+
+abstract class TaskQueue {
+
+  /**
+   * Returns the task queue with the specified name ("heap" or "wheel")
+   * or <code>null</code> if no such task queue exists.
+   */
+  static TaskQueue createQueue(String name) {
+    if ("heap".equals(name)) {
+      return new HeapTaskQueue();
+    } else if ("wheel".equals(name)) {
+      return new WheelTaskQueue();
+    }
+    return null;
+  }
+
+  abstract String getName();
+
+  abstract int size();
+
+  abstract void add(TaskHandle task, long currentTime);
+
+  /**
+   * Removes and returns the next task due at the specified time or
+   * <code>null</code> if no task is due. Cancelled tasks might be
+   * returned and are dropped by the caller.
+   */
+  abstract TaskHandle poll(long currentTime);
+
+  /**
+   * Returns the earliest time when a task might be due or
+   * Long.MAX_VALUE if the queue is empty. The time might be earlier
+   * than the time of the first task but never later.
+   */
+  abstract long getNextTime();
+
+  /**
+   * Cancels all tasks with the specified key and task.
+   */
+  abstract void cancel(Object key, Task task);
+
+  /**
+   * Moves all tasks in this queue to the specified queue.
+   */
+  abstract void drainTo(TaskQueue queue, long currentTime);
+
+} // TaskQueue
@@ -28,10 +28,33 @@
  *
  *   A TimeDispatcher object is obtained by calling
  *   TimeDispatcher.getDefault().
+ *
+ *   The tasks are by default kept in a binary heap ordered by time
+ *   (and by the order they were added for tasks with the same time)
+ *   and the timer thread waits exactly until the first task is due.
+ *   For many scheduled tasks a hierarchical timing wheel can be used
+ *   instead (see setTaskQueue()). The lateness of each task, i.e. how
+ *   long after its time it was started, is recorded in a histogram.
+ *
+ *   Each added task returns a TaskHandle that can be cancelled in
+ *   constant time. Tasks can also be added to a TaskGroup to cancel
+ *   all of them at once. Cancelled tasks are left in the task queue
+ *   and dropped later.
+ *
+ *   By default the tasks are performed by the timer thread. If worker
+ *   threads are set, the timer thread only handles the timing and due
+ *   tasks are performed by a fixed pool of worker threads. Tasks with
+ *   the same key and task are never performed concurrently but in the
+ *   order they became due, so a periodic task never overlaps itself.
  */
 
 package se.sics.tac.aw;
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.botbox.util.ArrayQueue;
 
 public class TimeDispatcher extends Thread {
 
@@ -48,76 +71,247 @@ public class TimeDispatcher extends Thread {
     return dispatcher;
   }
 
-  private ArrayList list = new ArrayList();
+  private TaskQueue queue = new HeapTaskQueue();
+  // The time the timer thread is waiting for
+  private long nextTime = Long.MAX_VALUE;
+  private long nextSeq;
   private long timeDiff;
 
+  private final LatencyHistogram lateness = new LatencyHistogram();
+
+  private ExecutorService workers;
+  private int workerThreads = 0;
+  // Tasks waiting for an earlier task with the same key and task
+  private final HashMap<TaskKey, ArrayQueue> runningTasks =
+    new HashMap<TaskKey, ArrayQueue>();
+
   private TimeDispatcher() {
     super("timer");
     start();
   }
 
-  public void setTimeDiff(long timeDiff) {
+  public synchronized void setTimeDiff(long timeDiff) {
     this.timeDiff = timeDiff;
+    // The time of the first task might have changed
+    notify();
   }
 
-  public synchronized
-    void addTask(long time, Object key, Object value, Task task) {
-    list.add(new TaskHolder(time, key, value, task));
-    notify();
+  /**
+   * Sets how the scheduled tasks are kept: "heap" for a binary heap
+   * (the default) or "wheel" for a hierarchical timing wheel. Already
+   * scheduled tasks are moved to the new task queue.
+   *
+   * @return <code>true</code> if the task queue was set and
+   *	<code>false</code> if no such task queue exists
+   */
+  public synchronized boolean setTaskQueue(String name) {
+    if (!name.equals(queue.getName())) {
+      TaskQueue newQueue = TaskQueue.createQueue(name);
+      if (newQueue == null) {
+	return false;
+      }
+      queue.drainTo(newQueue, System.currentTimeMillis() - timeDiff);
+      queue = newQueue;
+      notify();
+    }
+    return true;
   }
 
-  public synchronized void cancelTask(Object key, Task task) {
-    for (int i = 0, n = list.size(); i < n; i++) {
-      TaskHolder h = (TaskHolder) list.get(i);
-      if (h.key == key && h.task == task) {
-	list.remove(i);
-	i--; n--;
+  public synchronized String getTaskQueue() {
+    return queue.getName();
+  }
+
+  /**
+   * Sets the number of worker threads performing the tasks. With no
+   * worker threads the tasks are performed by the timer thread.
+   */
+  public synchronized void setWorkerThreads(int threads) {
+    if (threads < 0) {
+      threads = 0;
+    }
+    if (threads != workerThreads) {
+      ExecutorService oldWorkers = workers;
+      workerThreads = threads;
+      if (threads > 0) {
+	workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+	    private int count = 0;
+
+	    public synchronized Thread newThread(Runnable r) {
+	      return new Thread(r, "timer-" + (++count));
+	    }
+	  });
+      } else {
+	workers = null;
+      }
+      if (oldWorkers != null) {
+	// Already queued tasks are still performed
+	oldWorkers.shutdown();
       }
     }
   }
 
-  private synchronized TaskHolder nextTask() {
+  public synchronized int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * Returns the histogram of how late in milliseconds the tasks have
+   * been started compared to their scheduled time.
+   */
+  public LatencyHistogram getLateness() {
+    return lateness;
+  }
+
+  public TaskHandle addTask(long time, Object key, Object value,
+			    Task task) {
+    return addTask(time, key, value, task, null);
+  }
+
+  /**
+   * Schedules a task to be performed at the specified time.
+   *
+   * @param group the group of the task or <code>null</code>
+   * @return a handle that can be used to cancel the task
+   */
+  public synchronized TaskHandle addTask(long time, Object key, Object value,
+					 Task task, TaskGroup group) {
+    TaskHandle h = new TaskHandle(time, key, value, task, group, nextSeq++);
+    queue.add(h, System.currentTimeMillis() - timeDiff);
+    if (time < nextTime) {
+      // New first task: the timer thread must wake up earlier
+      notify();
+    }
+    return h;
+  }
+
+  /**
+   * Cancels all tasks with the specified key and task. This requires
+   * a search through all scheduled tasks and cancelling the handles
+   * returned by addTask() or using a TaskGroup is preferable.
+   */
+  public synchronized void cancelTask(Object key, Task task) {
+    queue.cancel(key, task);
+  }
+
+  private synchronized TaskHandle nextTask() {
     do {
       long currentTime = System.currentTimeMillis() - timeDiff;
-      for (int i = 0, n = list.size(); i < n; i++) {
-	TaskHolder h = (TaskHolder) list.get(i);
-	if (h.time <= currentTime) {
-	  list.remove(i);
+      TaskHandle h = queue.poll(currentTime);
+      if (h != null) {
+	if (!h.isCancelled()) {
+	  nextTime = Long.MAX_VALUE;
+	  lateness.record(currentTime - h.time);
 	  return h;
 	}
-      }
-      try {
-	wait(1000);
-      } catch (Exception e) {
-	e.printStackTrace();
+      } else {
+	nextTime = queue.getNextTime();
+	long delay = nextTime == Long.MAX_VALUE
+	  ? 0L
+	  : (nextTime > currentTime ? nextTime - currentTime : 1L);
+	try {
+	  // Wait until the first task is due or a new task is added
+	  wait(delay);
+	} catch (Exception e) {
+	  e.printStackTrace();
+	}
       }
     } while (true);
   }
 
   public void run() {
     do {
-      TaskHolder h = nextTask();
-      try {
-	h.task.performWork(h.time, h.key, h.value);
-      } catch (Exception e) {
-	e.printStackTrace();
+      TaskHandle h = nextTask();
+      ExecutorService workers;
+      synchronized (this) {
+	workers = this.workers;
+      }
+      if (workers == null) {
+	perform(h);
+      } else {
+	execute(workers, h);
       }
     } while (true);
   }
 
+  private void perform(TaskHandle h) {
+    try {
+      h.task.performWork(h.time, h.key, h.value);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void execute(ExecutorService workers, TaskHandle h) {
+    TaskKey key = new TaskKey(h.key, h.task);
+    synchronized (runningTasks) {
+      ArrayQueue waiting = runningTasks.get(key);
+      if (waiting != null) {
+	// The same task is already running - perform this one after it
+	waiting.add(h);
+	return;
+      }
+      runningTasks.put(key, new ArrayQueue());
+    }
+    workers.execute(new TaskRunner(key, h));
+  }
+
+
+  // -------------------------------------------------------------------
+  // Worker support
+  // -------------------------------------------------------------------
 
-  private static class TaskHolder {
-    public long time;
-    public Object key;
-    public Object value;
-    public Task task;
+  // Identifies tasks that must not be performed concurrently. Keys are
+  // compared by identity as in cancelTask().
+  private static class TaskKey {
+    private final Object key;
+    private final Task task;
 
-    public TaskHolder(long time, Object key, Object value, Task task) {
-      this.time = time;
+    TaskKey(Object key, Task task) {
       this.key = key;
-      this.value = value;
       this.task = task;
     }
+
+    public int hashCode() {
+      return System.identityHashCode(key) * 31
+	+ System.identityHashCode(task);
+    }
+
+    public boolean equals(Object obj) {
+      if (obj instanceof TaskKey) {
+	TaskKey k = (TaskKey) obj;
+	return k.key == key && k.task == task;
+      }
+      return false;
+    }
   }
 
+  private class TaskRunner implements Runnable {
+    private final TaskKey key;
+    private TaskHandle handle;
+
+    TaskRunner(TaskKey key, TaskHandle handle) {
+      this.key = key;
+      this.handle = handle;
+    }
+
+    public void run() {
+      while (handle != null) {
+	// The task might have been cancelled while waiting for a worker
+	if (!handle.isCancelled()) {
+	  perform(handle);
+	}
+	synchronized (runningTasks) {
+	  ArrayQueue waiting = runningTasks.get(key);
+	  if (waiting.isEmpty()) {
+	    runningTasks.remove(key);
+	    handle = null;
+	  } else {
+	    handle = (TaskHandle) waiting.remove(0);
+	  }
+	}
+      }
+    }
+  }
+
+
 } // TimeDispatcher
@@ -0,0 +1,330 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * TransactionReconciler
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   Keeps track of the actions that must wait until the transactions
+ *   known by the server have been retrieved, such as clearing a bid
+ *   or telling the agent that an auction has closed. The actions are
+ *   collected in rounds. Each round is one transIDs request followed
+ *   by a transInfo request for each new transaction, all sent at
+ *   once. Actions added while a round is outstanding are merged into
+ *   the next round, which is requested as soon as the current round
+ *   completes. A round not completed within the timeout is abandoned
+ *   and its actions are moved to a new round.
+ *
+ *   The reconciler also keeps the transactions requested but not yet
+ *   received, in any round, to tell up to which transaction ID all
+ *   transactions have been received.
+ *
+ *   The reconciler is not thread safe and must be called with the
+ *   transaction lock held.
+ */
+
+package se.sics.tac.aw;
+
+class TransactionReconciler {
+
+  /** Action types */
+  public final static int GAME_STARTS = 1;
+  public final static int GAME_ENDS = 2;
+  public final static int CLOSE_AUCTION = 3;
+  public final static int CLEAR_BID = 4;
+
+  private final static String[] typeNames = {
+    "none", "gameStarts", "gameEnds", "closeAuction", "clearBid"
+  };
+
+  private final long timeout;
+
+  // The outstanding round or null if no round is outstanding
+  private Round current;
+  // Actions waiting for the next round
+  private Action[] pending = new Action[10];
+  private int pendingCount = 0;
+  // Transactions requested but not yet received
+  private int[] requestedIDs = new int[10];
+  private int requestedCount = 0;
+
+  private long roundCount;
+  private long actionCount;
+  private long timeoutCount;
+  private final LatencyHistogram roundTimes = new LatencyHistogram();
+
+  public TransactionReconciler(long timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Adds an action to wait for the transactions.
+   *
+   * @param action the action or null to only retrieve new transactions
+   * @param currentTime the current time as System.currentTimeMillis()
+   * @return a new round to request or null if the action will be
+   *	handled by an outstanding round
+   */
+  public Round addAction(Action action, long currentTime) {
+    if (action != null) {
+      if (pendingCount == pending.length) {
+	Action[] tmp = new Action[pendingCount * 2];
+	System.arraycopy(pending, 0, tmp, 0, pendingCount);
+	pending = tmp;
+      }
+      pending[pendingCount++] = action;
+      actionCount++;
+    }
+
+    Round round = current;
+    if (round == null) {
+      return startRound(null, currentTime);
+    }
+    if ((currentTime - round.startTime) > timeout) {
+      // The round is abandoned and its actions are moved to a new round
+      timeoutCount++;
+      return startRound(round, currentTime);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the next round to request if actions were added while the
+   * last round was outstanding and null otherwise.
+   */
+  public Round nextRound(long currentTime) {
+    if (current == null && pendingCount > 0) {
+      return startRound(null, currentTime);
+    }
+    return null;
+  }
+
+  /**
+   * Called when the transaction IDs of a round have been received.
+   *
+   * @param round the round
+   * @param infos the number of transInfo requests sent for the round
+   * @return true if the round is completed
+   */
+  public boolean idsReceived(Round round, int infos) {
+    if (round != current) {
+      return false;
+    }
+    round.hasIDs = true;
+    round.pendingInfos = infos;
+    return isCompleted(round);
+  }
+
+  /**
+   * Called when a transaction has been requested.
+   */
+  public void infoRequested(int transID) {
+    if (requestedCount == requestedIDs.length) {
+      int[] tmp = new int[requestedCount * 2];
+      System.arraycopy(requestedIDs, 0, tmp, 0, requestedCount);
+      requestedIDs = tmp;
+    }
+    requestedIDs[requestedCount++] = transID;
+  }
+
+  /**
+   * Called when a transaction of a round has been received. The
+   * transaction is no longer requested even if the round has been
+   * abandoned.
+   *
+   * @return true if the round is completed
+   */
+  public boolean infoReceived(Round round, int transID) {
+    for (int i = 0; i < requestedCount; i++) {
+      if (requestedIDs[i] == transID) {
+	requestedIDs[i] = requestedIDs[--requestedCount];
+	break;
+      }
+    }
+    if (round != current) {
+      return false;
+    }
+    round.pendingInfos--;
+    return isCompleted(round);
+  }
+
+  /**
+   * Returns the highest transaction ID below which all requested
+   * transactions have been received.
+   *
+   * @param lastTransID the highest transaction ID known
+   */
+  public int getReceivedTransID(int lastTransID) {
+    int min = lastTransID;
+    for (int i = 0; i < requestedCount; i++) {
+      if (requestedIDs[i] <= min) {
+	min = requestedIDs[i] - 1;
+      }
+    }
+    return min;
+  }
+
+  /**
+   * Removes all actions and forgets any outstanding round.
+   */
+  public void clear() {
+    current = null;
+    for (int i = 0; i < pendingCount; i++) {
+      pending[i] = null;
+    }
+    pendingCount = 0;
+  }
+
+  /**
+   * Forgets the requested transactions when a new game starts.
+   */
+  public void clearRequested() {
+    requestedCount = 0;
+  }
+
+  public boolean isIdle() {
+    return current == null && pendingCount == 0;
+  }
+
+  private boolean isCompleted(Round round) {
+    if (round.hasIDs && round.pendingInfos <= 0) {
+      current = null;
+      roundTimes.record(System.currentTimeMillis() - round.startTime);
+      return true;
+    }
+    return false;
+  }
+
+  private Round startRound(Round abandoned, long currentTime) {
+    int count = pendingCount;
+    if (abandoned != null) {
+      count += abandoned.actionCount;
+    }
+    Action[] actions = new Action[count];
+    int index = 0;
+    if (abandoned != null) {
+      System.arraycopy(abandoned.actions, 0, actions, 0,
+		       abandoned.actionCount);
+      index = abandoned.actionCount;
+    }
+    System.arraycopy(pending, 0, actions, index, pendingCount);
+    for (int i = 0; i < pendingCount; i++) {
+      pending[i] = null;
+    }
+    pendingCount = 0;
+
+    roundCount++;
+    current = new Round(actions, currentTime);
+    return current;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Statistics
+  // -------------------------------------------------------------------
+
+  public long getTimeoutCount() {
+    return timeoutCount;
+  }
+
+  public String getStatistics() {
+    StringBuffer sb = new StringBuffer();
+    sb.append(actionCount).append(" actions in ").append(roundCount)
+      .append(" rounds, ").append(timeoutCount).append(" timeouts")
+      .append("\n  round time (ms) ").append(roundTimes);
+    return sb.toString();
+  }
+
+  public void resetStatistics() {
+    roundCount = 0L;
+    actionCount = 0L;
+    timeoutCount = 0L;
+    roundTimes.reset();
+  }
+
+  public static String getTypeName(int type) {
+    return type > 0 && type < typeNames.length
+      ? typeNames[type]
+      : Integer.toString(type);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Action
+  // -------------------------------------------------------------------
+
+  public static class Action {
+
+    public final int type;
+    public final int auction;
+    public final int clearID;
+
+    public Action(int type) {
+      this(type, -1, -1);
+    }
+
+    public Action(int type, int auction) {
+      this(type, auction, -1);
+    }
+
+    public Action(int type, int auction, int clearID) {
+      this.type = type;
+      this.auction = auction;
+      this.clearID = clearID;
+    }
+
+    public String toString() {
+      return clearID >= 0
+	? getTypeName(type) + '[' + auction + ',' + clearID + ']'
+	: (auction >= 0 ? getTypeName(type) + '[' + auction + ']'
+	   : getTypeName(type));
+    }
+
+  } // Action
+
+
+  // -------------------------------------------------------------------
+  // Round
+  // -------------------------------------------------------------------
+
+  public static class Round {
+
+    private final Action[] actions;
+    private final int actionCount;
+    private final long startTime;
+    private boolean hasIDs;
+    private int pendingInfos;
+
+    Round(Action[] actions, long startTime) {
+      this.actions = actions;
+      this.actionCount = actions.length;
+      this.startTime = startTime;
+    }
+
+    public int getActionCount() {
+      return actionCount;
+    }
+
+    public Action getAction(int index) {
+      return actions[index];
+    }
+
+  } // Round
+
+} // TransactionReconciler
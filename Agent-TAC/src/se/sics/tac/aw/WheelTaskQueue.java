@@ -0,0 +1,303 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * WheelTaskQueue
+ *
+ * Created : 17 October, 2026
+ * Purpose :
+ *   A task queue kept as a hierarchical timing wheel with a resolution
+ *   of one millisecond. The wheel has four levels of 256 slots each
+ *   where the first level covers the next 256 ms, the second level the
+ *   next 65 seconds, and so on. Adding a task and expiring a task are
+ *   O(1). The tasks in a slot on a higher level are moved (cascaded)
+ *   to the lower levels when the first level has made a full turn.
+ *
+ *   Due tasks are returned in time order with millisecond resolution
+ *   except that tasks added when their time already has passed are
+ *   returned first. Tasks further into the future than the wheel covers
+ *   are kept in the last level until they come within range.
+ *   Cancelled tasks are dropped when cascaded or expired. If the clock
+ *   is moved backwards all tasks are added again from the new time.
+ */
+
+package se.sics.tac.aw;
+
+class WheelTaskQueue extends TaskQueue {
+
+  private final static int SLOT_BITS = 8;
+  private final static int SLOTS = 1 << SLOT_BITS;
+  private final static int SLOT_MASK = SLOTS - 1;
+  private final static int LEVELS = 4;
+
+  private final TaskHandle[][] heads = new TaskHandle[LEVELS][SLOTS];
+  private final TaskHandle[][] tails = new TaskHandle[LEVELS][SLOTS];
+  private final int[] levelCount = new int[LEVELS];
+
+  // Tasks that are due
+  private TaskHandle readyHead;
+  private TaskHandle readyTail;
+  private int readyCount;
+
+  private long currentTick;
+  private boolean isStarted = false;
+
+  String getName() {
+    return "wheel";
+  }
+
+  int size() {
+    int size = readyCount;
+    for (int i = 0; i < LEVELS; i++) {
+      size += levelCount[i];
+    }
+    return size;
+  }
+
+  void add(TaskHandle h, long currentTime) {
+    if (!isStarted) {
+      isStarted = true;
+      currentTick = currentTime;
+    } else if (currentTime < currentTick) {
+      rebase(currentTime);
+    }
+    h.next = null;
+    long delay = h.time - currentTick;
+    if (delay <= 0) {
+      if (readyTail == null) {
+	readyHead = h;
+      } else {
+	readyTail.next = h;
+      }
+      readyTail = h;
+      readyCount++;
+      return;
+    }
+
+    int level = 0;
+    while (level < LEVELS - 1
+	   && delay >= (1L << (SLOT_BITS * (level + 1)))) {
+      level++;
+    }
+    int slot = (int) (h.time >>> (SLOT_BITS * level)) & SLOT_MASK;
+    TaskHandle tail = tails[level][slot];
+    if (tail == null) {
+      heads[level][slot] = h;
+    } else {
+      tail.next = h;
+    }
+    tails[level][slot] = h;
+    levelCount[level]++;
+  }
+
+  TaskHandle poll(long currentTime) {
+    if (!isStarted) {
+      return null;
+    }
+    if (currentTime < currentTick) {
+      rebase(currentTime);
+    }
+    if (readyHead == null) {
+      advance(currentTime);
+    }
+    TaskHandle h = readyHead;
+    if (h != null) {
+      readyHead = h.next;
+      if (readyHead == null) {
+	readyTail = null;
+      }
+      readyCount--;
+      h.next = null;
+    }
+    return h;
+  }
+
+  long getNextTime() {
+    if (readyHead != null) {
+      return currentTick;
+    }
+    long next = Long.MAX_VALUE;
+    if (levelCount[0] > 0) {
+      for (int i = 1; i < SLOTS; i++) {
+	if (heads[0][(int) (currentTick + i) & SLOT_MASK] != null) {
+	  next = currentTick + i;
+	  break;
+	}
+      }
+    }
+    for (int level = 1; level < LEVELS; level++) {
+      if (levelCount[level] > 0) {
+	// Tasks might be cascaded when the first level turns
+	long turn = (currentTick | SLOT_MASK) + 1;
+	return turn < next ? turn : next;
+      }
+    }
+    return next;
+  }
+
+  void cancel(Object key, Task task) {
+    for (TaskHandle h = readyHead; h != null; h = h.next) {
+      if (h.key == key && h.task == task) {
+	h.cancel();
+      }
+    }
+    for (int level = 0; level < LEVELS; level++) {
+      if (levelCount[level] > 0) {
+	TaskHandle[] slots = heads[level];
+	for (int i = 0; i < SLOTS; i++) {
+	  for (TaskHandle h = slots[i]; h != null; h = h.next) {
+	    if (h.key == key && h.task == task) {
+	      h.cancel();
+	    }
+	  }
+	}
+      }
+    }
+  }
+
+  void drainTo(TaskQueue queue, long currentTime) {
+    TaskHandle h = readyHead;
+    readyHead = readyTail = null;
+    readyCount = 0;
+    drainList(h, queue, currentTime);
+    for (int level = 0; level < LEVELS; level++) {
+      for (int i = 0; i < SLOTS; i++) {
+	h = heads[level][i];
+	heads[level][i] = tails[level][i] = null;
+	drainList(h, queue, currentTime);
+      }
+      levelCount[level] = 0;
+    }
+  }
+
+  private void drainList(TaskHandle h, TaskQueue queue, long currentTime) {
+    while (h != null) {
+      TaskHandle next = h.next;
+      if (!h.isCancelled()) {
+	queue.add(h, currentTime);
+      }
+      h = next;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Wheel handling
+  // -------------------------------------------------------------------
+
+  // Moves the wheel forward to the specified time and collects all
+  // tasks that have become due
+  private void advance(long currentTime) {
+    while (currentTick < currentTime && readyHead == null) {
+      if (levelCount[0] == 0) {
+	boolean isEmpty = true;
+	for (int level = 1; level < LEVELS; level++) {
+	  if (levelCount[level] > 0) {
+	    isEmpty = false;
+	    break;
+	  }
+	}
+	if (isEmpty) {
+	  currentTick = currentTime;
+	  return;
+	}
+	// Nothing can expire before the first level turns
+	long turn = (currentTick | SLOT_MASK) + 1;
+	if (turn > currentTime) {
+	  currentTick = currentTime;
+	  return;
+	}
+	currentTick = turn - 1;
+      }
+
+      long tick = ++currentTick;
+      for (int level = LEVELS - 1; level > 0; level--) {
+	if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+	  cascade(level,
+		  (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+	}
+      }
+      expire((int) tick & SLOT_MASK);
+    }
+  }
+
+  // Adds all tasks again to a wheel starting at the specified time.
+  // Used when the clock has been moved backwards since the tasks that
+  // were due at the previous time might no longer be due.
+  private void rebase(long currentTime) {
+    TaskHandle list = readyHead;
+    TaskHandle last = readyTail;
+    readyHead = readyTail = null;
+    readyCount = 0;
+    for (int level = 0; level < LEVELS; level++) {
+      for (int i = 0; i < SLOTS; i++) {
+	TaskHandle h = heads[level][i];
+	if (h != null) {
+	  if (last == null) {
+	    list = h;
+	  } else {
+	    last.next = h;
+	  }
+	  last = tails[level][i];
+	  heads[level][i] = tails[level][i] = null;
+	}
+      }
+      levelCount[level] = 0;
+    }
+    currentTick = currentTime;
+    drainList(list, this, currentTime);
+  }
+
+  private void cascade(int level, int slot) {
+    TaskHandle h = heads[level][slot];
+    if (h != null) {
+      heads[level][slot] = tails[level][slot] = null;
+      while (h != null) {
+	TaskHandle next = h.next;
+	levelCount[level]--;
+	if (!h.isCancelled()) {
+	  add(h, currentTick);
+	}
+	h = next;
+      }
+    }
+  }
+
+  private void expire(int slot) {
+    TaskHandle h = heads[0][slot];
+    if (h != null) {
+      heads[0][slot] = tails[0][slot] = null;
+      while (h != null) {
+	TaskHandle next = h.next;
+	levelCount[0]--;
+	if (!h.isCancelled()) {
+	  h.next = null;
+	  if (readyTail == null) {
+	    readyHead = h;
+	  } else {
+	    readyTail.next = h;
+	  }
+	  readyTail = h;
+	  readyCount++;
+	}
+	h = next;
+      }
+    }
+  }
+
+} // WheelTaskQueue